@@ -0,0 +1,95 @@
+package com.eo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Puts the library into a known state so benchmark runs are comparable
+ * across commits
+ */
+class BenchmarkLog {
+
+    // Large enough that a benchmark never rolls the log part way through
+    static final int NO_ROLL_KB = 1 << 20;
+
+    // Each forked Jvm logs to a temporary directory of its own, so running the
+    // benchmarks from an app's directory never touches the app's own log
+    private static Path directory;
+
+
+    private static void deleteAll(File directory) {
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteAll(file);
+                file.setWritable(true);
+                file.delete();
+            }
+        }
+    }
+
+
+    static synchronized Path getDirectory() throws IOException {
+
+        if (directory == null) {
+
+            Path created = Files.createTempDirectory("logalicious-benchmark");
+            LogUtility.setLogPath(created.resolve("log").resolve("log.mv.db"));
+
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                deleteAll(created.toFile());
+                created.toFile().delete();
+            }));
+
+            directory = created;
+        }
+
+        return directory;
+    }
+
+    static void clear(File directory) {
+        // Only ever called on directories under getDirectory
+
+        deleteAll(directory);
+    }
+
+    static void reset() throws IOException {
+
+        // Log path is set before the default store is first opened
+        File logDirectory = getDirectory().resolve("log").toFile();
+        LogStore.getDefault().closeDatabase();
+
+        // Start every trial from an empty log directory
+        clear(logDirectory);
+
+        LogWriter.maxLogSizeKb = NO_ROLL_KB;
+    }
+
+    static void populate(int rows) {
+
+        // Written in batches as the async flusher would
+        int batch = 1000;
+        List<LogEntry> entries = new ArrayList<>(batch);
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < rows; i++) {
+
+            entries.add(new LogEntry(now + i, i % 10 == 0 ? LogWriter.SEVERE : LogWriter.INFO,
+                    BenchmarkLog.class.getName(), "Benchmark entry number " + i));
+
+            if (entries.size() == batch) {
+                LogStore.getDefault().insertLogs(entries);
+                entries.clear();
+            }
+        }
+
+        if (!entries.isEmpty()) {
+            LogStore.getDefault().insertLogs(entries);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.eo;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of synchronous writes that wait to be durable, written one at
+ * a time or in group commits, as more threads write at once
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DurableWriteBenchmark {
+
+    @Param({"COMMIT", "FSYNC"})
+    public LogWriter.Durability durability;
+
+    @Param({"false", "true"})
+    public boolean groupCommit;
+
+    @Param({"DATABASE", "JOURNAL"})
+    public LogWriter.StoreType storeType;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        // Each trial forks a new Jvm so the store is chosen before it is first opened
+        LogWriter.storeType = storeType;
+        BenchmarkLog.reset();
+        LogWriter.durability = durability;
+        LogWriter.groupCommit = groupCommit;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+        LogStore.getDefault().closeDatabase();
+    }
+
+
+    @Benchmark
+    @Threads(1)
+    public void writeSingleThread() {
+
+        LogWriter.writeLog(LogWriter.INFO, "Benchmark message");
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void writeSixteenThreads() {
+
+        LogWriter.writeLog(LogWriter.INFO, "Benchmark message");
+    }
+}
@@ -0,0 +1,105 @@
+package com.eo;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time taken by LogReader.readLog to format every entry of logs of
+ * different sizes, and by LogReader.search to find entries by their words
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class ReadBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+
+    /**
+     * Counts what is written so the formatted log is not held in memory
+     */
+    private static final class CountingAppendable implements Appendable {
+
+        private long length = 0;
+
+        @Override
+        public Appendable append(CharSequence csq) {
+
+            length += csq.length();
+            return this;
+        }
+
+        @Override
+        public Appendable append(CharSequence csq, int start, int end) {
+
+            length += end - start;
+            return this;
+        }
+
+        @Override
+        public Appendable append(char c) {
+
+            length++;
+            return this;
+        }
+    }
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        BenchmarkLog.reset();
+        BenchmarkLog.populate(rows);
+
+        // Index every entry before searches are timed
+        LogReader.search("benchmark");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+        LogStore.getDefault().closeDatabase();
+    }
+
+
+    @Benchmark
+    public long readLog() throws IOException {
+
+        CountingAppendable out = new CountingAppendable();
+        LogReader.readLog(LogWriter.INFO, false, false, out);
+
+        return out.length;
+    }
+
+    @Benchmark
+    public long streamSevere() {
+        // Reads only the tenth of entries that are SEVERE
+
+        return LogReader.streamLog(LogWriter.SEVERE, false).count();
+    }
+
+    @Benchmark
+    public int search() {
+        // A word found in a single entry, then one found in every entry
+
+        return LogReader.search("number " + rows / 2).size()
+                + LogReader.search("benchmark").size();
+    }
+}
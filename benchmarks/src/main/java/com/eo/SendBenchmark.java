@@ -0,0 +1,79 @@
+package com.eo;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A full send cycle of buffering entries, rendering them, emailing them
+ * to an in-process SMTP stub and marking them as sent
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SendBenchmark {
+
+    @Param({"10", "1000"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean keepAlive;
+
+    private SmtpStub smtp;
+    private LogEntry[] buffered;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        BenchmarkLog.reset();
+        BenchmarkLog.populate(entries);
+
+        smtp = new SmtpStub();
+
+        LogSender.host = "localhost";
+        LogSender.port = smtp.getPort();
+        LogSender.useTLS = false;
+        LogSender.from = "logalicious@localhost";
+        LogSender.to = "benchmark@localhost";
+        LogSender.subject = "Benchmark";
+        LogSender.keepAlive = keepAlive;
+
+        buffered = LogReader.streamLog(LogWriter.INFO, false).toArray(LogEntry[]::new);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+
+        LogTransport.close();
+        smtp.close();
+        LogStore.getDefault().closeDatabase();
+    }
+
+
+    @Benchmark
+    public int sendCycle() {
+
+        for (LogEntry entry : buffered) {
+            LogSender.send(entry);
+        }
+        LogSender.sendMail();
+
+        return smtp.getMessages();
+    }
+}
@@ -0,0 +1,65 @@
+package com.eo;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Write throughput of a Logalicious store as it is spread across more shards
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+public class ShardBenchmark {
+
+    @Param({"1", "4"})
+    public int shards;
+
+    private Logalicious log;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        BenchmarkLog.reset();
+
+        File directory = BenchmarkLog.getDirectory().resolve("shards").toFile();
+        BenchmarkLog.clear(directory);
+
+        log = Logalicious.builder()
+                .path(new File(directory, "log").getPath())
+                .shards(shards)
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+        log.close();
+    }
+
+
+    @Benchmark
+    public void write() {
+
+        log.writeLog(ShardBenchmark.class, LogWriter.INFO, "Benchmark message");
+    }
+}
@@ -0,0 +1,100 @@
+package com.eo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal in-process SMTP server that accepts every message, so a send
+ * cycle can be measured without a network or a real mail server
+ */
+class SmtpStub implements Runnable, AutoCloseable {
+
+    private final ServerSocket server;
+    private final AtomicInteger messages = new AtomicInteger();
+
+
+    SmtpStub() throws IOException {
+
+        server = new ServerSocket(0);
+
+        Thread thread = new Thread(this, "smtp-stub");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void reply(OutputStream out, String line) throws IOException {
+
+        out.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private void handle(Socket socket) {
+
+        try (Socket client = socket) {
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    client.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream out = client.getOutputStream();
+
+            reply(out, "220 stub");
+
+            String line;
+            while ((line = in.readLine()) != null) {
+
+                String command = line.toUpperCase();
+
+                if (command.startsWith("DATA")) {
+
+                    reply(out, "354 send data");
+
+                    // Discard the message up to the lone full stop
+                    while ((line = in.readLine()) != null && !line.equals(".")) {
+                        // Body is not needed
+                    }
+
+                    messages.incrementAndGet();
+                    reply(out, "250 ok");
+
+                } else if (command.startsWith("QUIT")) {
+                    reply(out, "221 bye");
+                    return;
+
+                } else {
+                    reply(out, "250 ok");
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+
+
+    int getMessages() { return messages.get(); }
+
+    int getPort() { return server.getLocalPort(); }
+
+    @Override
+    public void close() throws IOException { server.close(); }
+
+    @Override
+    public void run() {
+
+        try {
+            while (true) {
+                Socket client = server.accept();
+
+                Thread thread = new Thread(() -> handle(client), "smtp-stub-client");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            // Server closed
+        }
+    }
+}
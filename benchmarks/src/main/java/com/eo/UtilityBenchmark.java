@@ -0,0 +1,48 @@
+package com.eo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Costs paid on every logged entry that do not touch the database
+ */
+@State(Scope.Thread)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UtilityBenchmark {
+
+    private long timestamp = System.currentTimeMillis();
+
+
+    @Benchmark
+    public String callerLookup() {
+
+        return LogUtility.getCallerClassName();
+    }
+
+    @Benchmark
+    public String formatTimestamp() {
+
+        // Vary the time so nothing is cached between calls
+        return LogUtility.formatTimestamp(timestamp++);
+    }
+
+    @Benchmark
+    public boolean disabledLevel() {
+        // Cost of a call that is discarded by minLevel
+
+        return LogWriter.isLoggable(Level.FINEST);
+    }
+}
@@ -0,0 +1,81 @@
+package com.eo;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and latency of LogWriter.writeLog, written directly or
+ * through the async queue, to the log database or the log journal
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class WriteBenchmark {
+
+    @Param({"false", "true"})
+    public boolean useAsync;
+
+    @Param({"DATABASE", "JOURNAL"})
+    public LogWriter.StoreType storeType;
+
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        // Each trial forks a new Jvm so the store is chosen before it is first opened
+        LogWriter.storeType = storeType;
+        BenchmarkLog.reset();
+        LogWriter.useAsync = useAsync;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+        LogQueue.flush();
+        LogStore.getDefault().closeDatabase();
+    }
+
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(1)
+    public void writeSingleThread() {
+
+        LogWriter.writeLog(LogWriter.INFO, "Benchmark message");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(4)
+    public void writeFourThreads() {
+
+        LogWriter.writeLog(LogWriter.INFO, "Benchmark message");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(1)
+    public void writeLatency() {
+        // Sample mode reports the p50, p90, p99... percentiles of each call
+
+        LogWriter.writeLog(LogWriter.INFO, "Benchmark message");
+    }
+}
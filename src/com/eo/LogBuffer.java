@@ -0,0 +1,138 @@
+package com.eo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds log entries waiting to be emailed, keeping within the size limits
+ * set on LogSender by applying its overflow policy
+ */
+class LogBuffer {
+
+    // Allowance for the severity, date and line breaks around each message
+    private static final int ENTRY_OVERHEAD = 48;
+
+    // Kept in the order the entries were written
+    private final List<LogEntry> entries = new ArrayList<>();
+    private long bytes = 0;
+    private long lastId = 0;
+    private int omitted = 0;
+
+
+    private static long sizeOf(LogEntry entry) {
+
+        return ENTRY_OVERHEAD
+                + entry.callingClass.length()
+                + (entry.message == null ? 0 : entry.message.length());
+    }
+
+    private boolean isFull() {
+
+        return entries.size() > LogSender.maxBufferEntries
+                || bytes > LogSender.maxBufferBytes;
+    }
+
+    private void remove(int index) {
+
+        bytes -= sizeOf(entries.remove(index));
+        omitted++;
+    }
+
+    private void removeLowestSeverity() {
+
+        // Oldest of the least severe entries goes first
+        int lowest = 0;
+        for (int i = 1; i < entries.size(); i++) {
+            if (entries.get(i).severity.intValue()
+                    < entries.get(lowest).severity.intValue()) {
+                lowest = i;
+            }
+        }
+
+        remove(lowest);
+    }
+
+
+    private void trim() {
+
+        while (isFull() && !entries.isEmpty()) {
+
+            switch (LogSender.overflowPolicy) {
+
+                case KEEP_NEWEST:
+                    remove(0);
+                    break;
+
+                case KEEP_HIGHEST_SEVERITY:
+                    removeLowestSeverity();
+                    break;
+
+                default:
+                    // Truncate by refusing the newest entry
+                    remove(entries.size() - 1);
+            }
+        }
+    }
+
+
+    void add(LogEntry entry) {
+
+        // Entries dropped by the policy still count as sent
+        lastId = Math.max(lastId, entry.id);
+
+        entries.add(entry);
+        bytes += sizeOf(entry);
+
+        trim();
+    }
+
+    void addFirst(LogBuffer earlier) {
+        // Puts back entries that could not be sent, ahead of those read since
+
+        lastId = Math.max(lastId, earlier.lastId);
+
+        entries.addAll(0, earlier.entries);
+        bytes += earlier.bytes;
+        omitted += earlier.omitted;
+
+        trim();
+    }
+
+    void clear() {
+
+        entries.clear();
+        bytes = 0;
+        lastId = 0;
+        omitted = 0;
+    }
+
+    long getLastId() { return lastId; }
+
+    boolean isEmpty() { return entries.isEmpty() && omitted == 0; }
+
+    int size() { return entries.size(); }
+
+    String render() {
+
+        StringBuilder message = new StringBuilder((int) Math.min(bytes, Integer.MAX_VALUE));
+
+        try {
+            for (LogEntry entry : entries) {
+                LogReader.appendEntry(message, entry);
+            }
+        } catch (IOException e) {
+            // StringBuilder never throws
+            System.err.println("SEVERE: " + e.toString());
+        }
+
+        if (omitted > 0) {
+            // Say how much was left out to stay within the limits
+            message.append(omitted)
+                    .append(" entries omitted")
+                    .append(System.lineSeparator());
+        }
+
+        return message.toString();
+    }
+}
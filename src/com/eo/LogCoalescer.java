@@ -0,0 +1,160 @@
+package com.eo;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collapses identical entries written within LogWriter.coalesceWindowMs of
+ * each other into a single entry with a repeat count and last seen time
+ */
+class LogCoalescer {
+
+    // Past this many distinct pending entries new ones are written straight through
+    private static final int MAX_PENDING = 10000;
+
+    private static final Map<Key, Pending> PENDING = new ConcurrentHashMap<>();
+    private static boolean isScheduled = false;
+
+
+    /**
+     * Entries are identical when their severity, class, message and any
+     * placeholder values match
+     */
+    private static final class Key {
+
+        private final int severity;
+        private final String callingClass;
+        private final String message;
+        private final String[] args;
+        private final int hash;
+
+        Key(LogEntry entry) {
+
+            this.severity = entry.severity.intValue();
+            this.callingClass = entry.callingClass;
+            this.message = entry.message;
+            this.args = entry.args;
+            this.hash = 31 * Objects.hash(severity, callingClass, message)
+                    + Arrays.hashCode(args);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) o;
+            return severity == key.severity
+                    && Objects.equals(callingClass, key.callingClass)
+                    && Objects.equals(message, key.message)
+                    && Arrays.equals(args, key.args);
+        }
+
+        @Override
+        public int hashCode() { return hash; }
+    }
+
+    /**
+     * First occurrence of an entry and how often it has been repeated since.
+     * Only changed inside the map's compute so updates are never lost
+     */
+    private static final class Pending {
+
+        private final LogEntry first;
+        private int repeats = 1;
+        private long lastSeen;
+
+        Pending(LogEntry first) {
+
+            this.first = first;
+            this.lastSeen = first.timestamp;
+        }
+
+        LogEntry toEntry() {
+
+            return new LogEntry(0, first.timestamp, first.severity,
+                    first.callingClass, first.message, repeats, lastSeen, first.args);
+        }
+    }
+
+
+    private static void flushExpired() {
+
+        long expiry = System.currentTimeMillis() - LogWriter.coalesceWindowMs;
+
+        for (Map.Entry<Key, Pending> pending : PENDING.entrySet()) {
+
+            // Write out entries whose window has closed
+            if (pending.getValue().first.timestamp <= expiry
+                    && PENDING.remove(pending.getKey(), pending.getValue())) {
+
+                try {
+                    LogWriter.store(pending.getValue().toEntry());
+
+                } catch (RuntimeException e) {
+                    // Thrown out of a timed task it would cancel the schedule
+                    // and leave every later entry pending until shutdown
+                    System.err.println("SEVERE: Cannot write coalesced log entry "
+                            .concat(e.toString()));
+                }
+            }
+        }
+    }
+
+    private static synchronized void startTimer() {
+
+        if (!isScheduled) {
+
+            // Check for closed windows a few times per window, on a worker
+            // as the entries flushed are written to the store
+            long period = Math.max(10, LogWriter.coalesceWindowMs / 4);
+            LogScheduler.scheduleBlocking(LogCoalescer::flushExpired, period);
+
+            isScheduled = true;
+        }
+    }
+
+
+    static void add(LogEntry entry) {
+
+        if (!isScheduled) {
+            startTimer();
+        }
+
+        Key key = new Key(entry);
+
+        // Too many distinct entries waiting so don't hold on to any more
+        if (PENDING.size() >= MAX_PENDING && !PENDING.containsKey(key)) {
+            LogWriter.store(entry);
+            return;
+        }
+
+        PENDING.compute(key, (k, pending) -> {
+
+            if (pending == null) {
+                // First time this entry has been seen in the window
+                return new Pending(entry);
+            }
+
+            pending.repeats++;
+            pending.lastSeen = Math.max(pending.lastSeen, entry.timestamp);
+            return pending;
+        });
+    }
+
+    static void flush() {
+        // Writes out every pending entry whatever its window
+
+        for (Key key : PENDING.keySet()) {
+
+            Pending pending = PENDING.remove(key);
+            if (pending != null) {
+                LogWriter.store(pending.toEntry());
+            }
+        }
+    }
+}
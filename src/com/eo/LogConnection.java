@@ -0,0 +1,67 @@
+package com.eo;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pooled connection to the log database that keeps its prepared
+ * statements for reuse. Only ever used by one thread at a time
+ */
+class LogConnection {
+
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+
+    LogConnection(Connection conn) {
+        this.conn = conn;
+    }
+
+    void close() {
+
+        try {
+            // Statements must be closed before their connection
+            for (PreparedStatement statement : statements.values()) {
+                statement.close();
+            }
+
+            if (!conn.isClosed()) {
+                conn.close();
+            }
+
+        } catch (SQLException e) {
+
+            System.err.println("SEVERE: Cannot close existing database connection "
+                    .concat(e.toString()));
+        }
+
+        statements.clear();
+    }
+
+    Connection getConnection() { return conn; }
+
+    boolean isClosed() {
+
+        try {
+            return conn.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    PreparedStatement prepare(String sql) throws SQLException {
+
+        // Only prepare each statement once per connection
+        PreparedStatement statement = statements.get(sql);
+
+        if (statement == null || statement.isClosed()) {
+            statement = conn.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+
+        return statement;
+    }
+}
@@ -0,0 +1,105 @@
+package com.eo;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+
+/**
+ * Iterates log entries a page at a time so only one page is held in memory.
+ * No connection is held between pages so the cursor needs no closing
+ */
+class LogCursor implements Iterator<LogEntry> {
+
+    private final LogStore store;
+    private final String sender;
+    private final Level severity;
+    private final boolean isSent;
+    private final int pageSize;
+
+    // Segment currently being read, archives count down to the live log at 0
+    private int segment;
+    private long lastId;
+    private boolean isSegmentDone = false;
+    private Iterator<LogEntry> page = Collections.emptyIterator();
+
+
+    LogCursor(Level severity, boolean isSent, boolean archived, int pageSize) {
+
+        this(LogStore.getDefault(), severity, isSent, archived, pageSize);
+    }
+
+    LogCursor(LogStore store, Level severity, boolean isSent,
+              boolean archived, int pageSize) {
+
+        // Sent entries are those the email sender has sent
+        this(store, LogSender.CURSOR_NAME, severity, isSent, archived, 0, pageSize);
+    }
+
+    LogCursor(LogStore store, String sender, Level severity, boolean isSent,
+              boolean archived, long afterId, int pageSize) {
+
+        this.store = store;
+        this.sender = sender;
+        this.severity = severity;
+        this.lastId = afterId;
+        this.isSent = isSent;
+        this.pageSize = Math.max(1, pageSize);
+
+        // Start with the oldest archive so entries come out in time order
+        this.segment = archived ? LogWriter.maxLogSegments : 0;
+    }
+
+    private void nextPage() {
+
+        while (!page.hasNext()) {
+
+            if (isSegmentDone) {
+
+                if (segment == 0) {
+                    // Nothing left in any segment
+                    return;
+                }
+
+                // Move on to the next newest segment
+                segment--;
+                lastId = 0;
+                isSegmentDone = false;
+            }
+
+            // Entries held while the store opens are written before they are read
+            store.awaitOpen();
+            List<LogEntry> entries = store.getLogPage(
+                    segment, sender, severity, isSent, lastId, pageSize);
+
+            if (entries.size() < pageSize) {
+                isSegmentDone = true;
+            }
+
+            if (!entries.isEmpty()) {
+                lastId = entries.get(entries.size() - 1).id;
+            }
+
+            page = entries.iterator();
+        }
+    }
+
+
+    @Override
+    public boolean hasNext() {
+
+        nextPage();
+        return page.hasNext();
+    }
+
+    @Override
+    public LogEntry next() {
+
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        return page.next();
+    }
+}
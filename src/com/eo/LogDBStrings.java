@@ -5,51 +5,204 @@ package com.eo;
  */
 final class LogDBStrings {
 
+    static final String CHECKPOINT = "CHECKPOINT";
+    static final String CHECKPOINT_SYNC = "CHECKPOINT SYNC";
     static final String EXISTING = ";IFEXISTS=TRUE";
     static final String NO_AUTO_CLOSE = ";DB_CLOSE_ON_EXIT=FALSE";
     static final String OPEN = "jdbc:h2:";
     static final String PWD = "filepwd ";
+    static final String READ_ONLY = ";ACCESS_MODE_DATA=r";
     static final String USE_ENCRYPTION = ";CIPHER=AES";
 
-    static final int TIME = 1;
-    static final int DATE = 2;
-    static final int SEVERITY = 3;
-    static final int SEVERITY_NAME = 4;
-    static final int CLASS = 5;
-    static final int MESSAGE = 6;
-    static final int SENT = 7;
+    // Column positions shared by INSERT parameters and QUERY results
+    static final int EPOCH = 1;
+    static final int SEVERITY = 2;
+    static final int SEVERITY_NAME = 3;
+    static final int CLASS = 4;
+    static final int MESSAGE = 5;
+    static final int REPEATS = 6;
+    static final int LAST_SEEN = 7;
+    static final int PACKED = 8;
+    static final int ARGS = 9;
+    static final int ID = 10;
 
 
-    static final String CREATE_INDEX
-            = "CREATE INDEX Logs_index "
-            .concat("ON Logs ")
-            .concat("(Severity, Sent)");
+    static final String CREATE_CURSORS
+            = "CREATE TABLE IF NOT EXISTS Cursors ("
+                .concat("Sender varchar(255) PRIMARY KEY, ")
+                .concat("LastId bigint")
+                .concat(")");
 
     static final String CREATE_TABLE
             = "CREATE TABLE Logs ("
-                .concat("Time varchar(255), ")
-                .concat("Date varchar(255), ")
+                .concat("Id bigint AUTO_INCREMENT PRIMARY KEY, ")
+                .concat("Epoch bigint, ")
                 .concat("Severity int, ")
                 .concat("SevName varchar(255), ")
                 .concat("Class varchar(255), ")
                 .concat("Message clob, ")
-                .concat("Sent bit")
+                .concat("Repeats int DEFAULT 1, ")
+                .concat("LastSeen bigint, ")
+                .concat("Packed blob, ")
+                .concat("Args clob")
+                .concat(")");
+
+
+    // Time ordered indexes behind time range queries and keyset paging. H2 only
+    // reads an index in its own order so newest first needs one of its own
+    static final String CREATE_TIME_INDEX
+            = "CREATE INDEX IF NOT EXISTS Logs_Epoch ON Logs (Epoch, Id);";
+
+    static final String CREATE_RECENT_INDEX
+            = "CREATE INDEX IF NOT EXISTS Logs_Recent ON Logs (Epoch DESC, Id DESC);";
+
+    // Lets queries for the most severe entries skip everything less severe
+    static final String CREATE_SEVERITY_INDEX
+            = "CREATE INDEX IF NOT EXISTS Logs_Severity ON Logs (Severity, Epoch, Id);";
+
+
+    // Inverted index of the words in messages, kept by the library as compressed
+    // messages cannot be indexed by the database. Postings are the packed ids
+    // and times of the entries containing the word
+    static final String CREATE_TERMS
+            = "CREATE TABLE IF NOT EXISTS Terms ("
+                .concat("Term varchar(64), ")
+                .concat("LastId bigint, ")
+                .concat("Postings varbinary, ")
+                .concat("PRIMARY KEY (Term, LastId)")
                 .concat(")");
 
 
     static final String INSERT
             = "INSERT INTO Logs "
-                .concat("(Time, Date, Severity, SevName, Class, Message, Sent)")
-                .concat("VALUES (?,?,?,?,?,?,?);");
+                .concat("(Epoch, Severity, SevName, Class, Message, Repeats, LastSeen, Packed, Args)")
+                .concat("VALUES (?,?,?,?,?,?,?,?,?);");
+
+    static final String INSERT_TERMS
+            = "INSERT INTO Terms (Term, LastId, Postings) VALUES (?, ?, ?);";
+
+    static final String SELECT_COLUMNS
+            = "SELECT Epoch, Severity, SevName, Class, Message, "
+                .concat("Repeats, COALESCE(LastSeen, Epoch), Packed, Args, Id FROM Logs ");
 
+    // Range scan of the primary key between two ids
     static final String QUERY
-            = "SELECT * FROM Logs "
-                .concat("WHERE Severity >= ? ")
-                .concat("AND Sent = ?;");
-
-    static final String UPDATE_AS_READ
-            = "UPDATE Logs "
-                .concat("SET Sent = 'true' ")
-                .concat("WHERE Severity >= ? ")
-                .concat("AND Sent = 'false';");
-}
\ No newline at end of file
+            = SELECT_COLUMNS
+                .concat("WHERE Id > ? ")
+                .concat("AND Id <= ? ")
+                .concat("AND Severity >= ? ")
+                .concat("ORDER BY Id ")
+                .concat("LIMIT ?;");
+
+    // Pieces of the queries built by LogQuery, each filter adds its own parameters
+    static final String USE_TIME_INDEX = "USE INDEX (Logs_Epoch) ";
+    static final String USE_RECENT_INDEX = "USE INDEX (Logs_Recent) ";
+    static final String USE_SEVERITY_INDEX = "USE INDEX (Logs_Severity) ";
+    static final String FILTER_SEVERITY = "WHERE Severity >= ? ";
+    static final String FILTER_FROM = "AND Epoch >= ? ";
+    static final String FILTER_UNTIL = "AND Epoch < ? ";
+    static final String FILTER_CLASS = "AND Class LIKE ? ESCAPE '\\' ";
+    // The leading range on Epoch is what lets the index skip to the page
+    static final String FILTER_AFTER = "AND Epoch >= ? AND (Epoch > ? OR Id > ?) ";
+    static final String FILTER_BEFORE = "AND Epoch <= ? AND (Epoch < ? OR Id < ?) ";
+    static final String ORDER_OLDEST = "ORDER BY Epoch, Id LIMIT ?;";
+    static final String ORDER_NEWEST = "ORDER BY Epoch DESC, Id DESC LIMIT ?;";
+
+    // Ids of a search are written into the statement as they vary in number
+    static final String FILTER_IDS = "AND Id IN (";
+
+    static final String QUERY_TERM
+            = "SELECT Postings FROM Terms WHERE Term = ? ORDER BY LastId;";
+
+    static final String QUERY_TERM_PREFIX
+            = "SELECT Postings FROM Terms WHERE Term LIKE ?;";
+
+    static final String COUNT_LOGS
+            = "SELECT COUNT(*) FROM Logs;";
+
+    // Counts entries at or above a severity, stopping at the limit given
+    static final String COUNT_SEVERITY
+            = "SELECT COUNT(*) FROM (SELECT Id FROM Logs "
+                .concat(USE_SEVERITY_INDEX)
+                .concat("WHERE Severity >= ? LIMIT ?);");
+
+    static final String QUERY_CURSOR
+            = "SELECT LastId FROM Cursors "
+                .concat("WHERE Sender = ?;");
+
+    static final String QUERY_CURSORS
+            = "SELECT Sender, LastId FROM Cursors;";
+
+    static final String QUERY_LAST_ID
+            = "SELECT COALESCE(MAX(Id), 0) FROM Logs;";
+
+    // Cursor only ever moves forward
+    static final String UPDATE_CURSOR
+            = "MERGE INTO Cursors (Sender, LastId) KEY (Sender) "
+                .concat("VALUES (?, GREATEST(?, ")
+                .concat("COALESCE((SELECT LastId FROM Cursors WHERE Sender = ?), 0)));");
+
+    // Followed by the next id as DDL cannot take parameters
+    static final String RESTART_ID
+            = "ALTER TABLE Logs ALTER COLUMN Id RESTART WITH ";
+
+
+    // Used to migrate databases that store the time as Date and Time strings
+    static final String HAS_STRING_TIME
+            = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS "
+                .concat("WHERE TABLE_NAME = 'LOGS' ")
+                .concat("AND COLUMN_NAME = 'DATE';");
+
+    static final String ADD_EPOCH
+            = "ALTER TABLE Logs ADD COLUMN IF NOT EXISTS Epoch bigint BEFORE Severity;";
+
+    static final String QUERY_STRING_TIME
+            = "SELECT _ROWID_, Date, Time FROM Logs;";
+
+    static final String UPDATE_EPOCH
+            = "UPDATE Logs SET Epoch = ? WHERE _ROWID_ = ?;";
+
+    static final String DROP_DATE
+            = "ALTER TABLE Logs DROP COLUMN IF EXISTS Date;";
+
+    static final String DROP_TIME
+            = "ALTER TABLE Logs DROP COLUMN IF EXISTS Time;";
+
+
+    // Used to migrate databases that flag sent entries with a Sent column
+    static final String HAS_SENT_FLAG
+            = "SELECT COUNT(*) FROM INFORMATION_SCHEMA.COLUMNS "
+                .concat("WHERE TABLE_NAME = 'LOGS' ")
+                .concat("AND COLUMN_NAME = 'SENT';");
+
+    static final String ADD_ID
+            = "ALTER TABLE Logs ADD COLUMN IF NOT EXISTS Id bigint AUTO_INCREMENT BEFORE Epoch;";
+
+    static final String ADD_PRIMARY_KEY
+            = "ALTER TABLE Logs ADD PRIMARY KEY (Id);";
+
+    static final String QUERY_LAST_SENT
+            = "SELECT COALESCE(MAX(Id), 0) FROM Logs WHERE Sent = TRUE;";
+
+    static final String DROP_SENT_INDEX
+            = "DROP INDEX IF EXISTS Logs_index;";
+
+    static final String DROP_SENT
+            = "ALTER TABLE Logs DROP COLUMN IF EXISTS Sent;";
+
+
+    // Used to migrate databases written before entries were coalesced
+    static final String ADD_REPEATS
+            = "ALTER TABLE Logs ADD COLUMN IF NOT EXISTS Repeats int DEFAULT 1;";
+
+    static final String ADD_LAST_SEEN
+            = "ALTER TABLE Logs ADD COLUMN IF NOT EXISTS LastSeen bigint;";
+
+    // Used to migrate databases written before messages were compressed
+    static final String ADD_PACKED
+            = "ALTER TABLE Logs ADD COLUMN IF NOT EXISTS Packed blob;";
+
+    // Used to migrate databases written before messages were formatted when read
+    static final String ADD_ARGS
+            = "ALTER TABLE Logs ADD COLUMN IF NOT EXISTS Args clob;";
+}
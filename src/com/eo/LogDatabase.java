@@ -1,54 +1,196 @@
 package com.eo;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 import java.sql.*;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 
 /**
  * Created by eodeluga on 23/12/18.
  */
-class LogDatabase {
+class LogDatabase extends LogStore {
 
-    private static Connection conn = null;
-    private static PreparedStatement statement;
-    // Change size from Kb to bytes
-    private static final int MAX_SIZE = LogWriter.maxLogSizeKb * 1024;
+    // Live log file, archives sit beside it and its path seeds the encryption key
+    private final Path path;
 
-    private static void checkDatabaseSize() {
+    // Idle connections ready to be borrowed
+    private final BlockingQueue<LogConnection> pool = new LinkedBlockingQueue<>();
+    // Archived segments stay open once read so paging through them does not
+    // reopen the encrypted file each time, they are closed when the log rolls
+    private final Map<Integer, LogConnection> archives = new HashMap<>();
+    // Held for reading by every database operation and for writing while
+    // the database is closed or deleted so no connection is in use
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Ids are given out and committed in one step so rows become visible
+    // in id order and a cursor past an id has seen every row before it
+    private final Object insertLock = new Object();
+
+    private int openConnections = 0;
+    private boolean isInitialised = false;
+
+    // Carried from a rolled database into its replacement so ids keep
+    // increasing and sender cursors stay valid across segments
+    private long carriedLastId = 0;
+    private final Map<String, Long> carriedCursors = new HashMap<>();
+
+    // Starts at the interval so the first write checks the size
+    private final AtomicInteger writesSinceCheck =
+            new AtomicInteger(LogWriter.sizeCheckInterval);
+
+    // Only one pass of the search index runs at a time
+    private final Object indexLock = new Object();
+    private final AtomicInteger writesSinceIndex = new AtomicInteger();
+
+
+    LogDatabase(Path path) {
+        this.path = path;
+    }
+
+
+    private LogConnection borrowConnection() throws SQLException {
+
+        // Prefer a connection that is already open
+        LogConnection connection = pool.poll();
+
+        if (connection == null) {
+
+            synchronized (pool) {
+
+                if (!isInitialised) {
+                    // First connection opens or creates the database
+                    openConnections++;
+                    try {
+                        connection = initialise();
+                        isInitialised = true;
+                    } catch (IOException e) {
+                        openConnections--;
+                        throw new SQLException(e.toString());
+                    }
+
+                } else if (openConnections < LogWriter.poolSize) {
+                    // Room in the pool for another connection
+                    openConnections++;
+                    try {
+                        connection = new LogConnection(openDatabase());
+                    } catch (SQLException e) {
+                        openConnections--;
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        if (connection == null) {
+            try {
+                // Pool is at capacity so wait for a connection to be returned
+                connection = pool.take();
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for database connection");
+            }
+        }
+
+        return connection;
+    }
+
+    private void checkDatabaseSize(int writes) {
+
+        // Only check the file size every sizeCheckInterval writes
+        if (writesSinceCheck.addAndGet(writes) < LogWriter.sizeCheckInterval) {
+            return;
+        }
+        writesSinceCheck.set(0);
 
         try {
-            // Check for existing log db file
-            if (LogUtility.getLogFileExists()) {
+            // Change size from Kb to bytes
+            long maxSize = LogWriter.maxLogSizeKb * 1024L;
 
-                // Check existing log db size against max size
-                long fSize;
-                fSize = LogUtility.getLogFile().length();
+            // Check existing log db size against max size
+            if (getSize() >= maxSize) {
 
-                // Check if size exceeds max
-                if (fSize >= MAX_SIZE) {
+                // Wait for any operations in progress to finish
+                lock.writeLock().lock();
+                try {
+                    // Check again as another thread may have rolled it already
+                    if (getSize() >= maxSize) {
 
-                    closeDatabase();
+                        // Archives are read only so index every entry now,
+                        // while none can be written between the pass and the roll
+                        indexNewEntries();
 
-                    // Delete log as it exceeds max size
-                    LogUtility.deleteLog();
+                        carryOverState();
+                        closeDatabase();
+
+                        // Archive the log as it exceeds max size
+                        LogUtility.rollLog(path);
+                        LogMetrics.rolled();
+                    }
+                } finally {
+                    lock.writeLock().unlock();
                 }
             }
         } catch (IOException e) {
 
-            System.err.println("SEVERE: Cannot check database size "
+            System.err.println("SEVERE: Cannot roll over database "
+                    .concat(e.toString()));
+        }
+    }
+
+    private void carryOverState() {
+
+        LogConnection connection = null;
+
+        try {
+            connection = borrowConnection();
+
+            try (Statement statement = connection.getConnection().createStatement()) {
+
+                try (ResultSet result = statement.executeQuery(LogDBStrings.QUERY_LAST_ID)) {
+                    result.next();
+                    carriedLastId = result.getLong(1);
+                }
+
+                try (ResultSet result = statement.executeQuery(LogDBStrings.QUERY_CURSORS)) {
+                    while (result.next()) {
+                        carriedCursors.put(result.getString(1), result.getLong(2));
+                    }
+                }
+            }
+
+        } catch (SQLException e) {
+
+            System.err.println("SEVERE: Cannot read state of rolled database "
                     .concat(e.toString()));
+
+        } finally {
+            releaseConnection(connection);
         }
     }
 
-    private static boolean createDatabase() throws SQLException {
+    private Connection createDatabase() throws SQLException {
 
         // Connection strings
         StringBuilder url;
 
         // Need to remove extension from file name
         String logFileName =
-                LogUtility.logPath.toString().replace(".mv.db", "");
+                path.toString().replace(".mv.db", "");
 
         url = new StringBuilder()
                 .append(LogDBStrings.OPEN)
@@ -56,27 +198,40 @@ class LogDatabase {
                 .append(LogDBStrings.NO_AUTO_CLOSE)
                 .append(LogDBStrings.USE_ENCRYPTION);
 
-        // Execute connection URL to open existing database
-        Connection connection = executeSql(url);
-
-        // Return status of connection validity
-        return (connection != null && connection.isValid(1000));
+        // Execute connection URL to create new database
+        return executeSql(url);
     }
 
-    private static void createSchema() throws SQLException {
+    private void createSchema(Connection conn) throws SQLException {
 
         // Construct and execute SQL statements
-        Statement statement = conn.createStatement();
-        statement.execute(LogDBStrings.CREATE_TABLE);
-        statement.execute(LogDBStrings.CREATE_INDEX);
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(LogDBStrings.CREATE_TABLE);
+            statement.execute(LogDBStrings.CREATE_CURSORS);
+            statement.execute(LogDBStrings.CREATE_TIME_INDEX);
+            statement.execute(LogDBStrings.CREATE_RECENT_INDEX);
+            statement.execute(LogDBStrings.CREATE_SEVERITY_INDEX);
+            statement.execute(LogDBStrings.CREATE_TERMS);
+
+            if (carriedLastId > 0) {
+                // Continue ids on from the rolled database
+                statement.execute(LogDBStrings.RESTART_ID + (carriedLastId + 1));
+                carriedLastId = 0;
+            }
+        }
+
+        for (Map.Entry<String, Long> cursor : carriedCursors.entrySet()) {
+            updateCursor(conn, cursor.getKey(), cursor.getValue());
+        }
+        carriedCursors.clear();
     }
 
-    private static Connection executeSql(StringBuilder connectionUrl)
+    private Connection executeSql(StringBuilder connectionUrl)
             throws SQLException {
         // Executes the operation to open existing or create new log database
 
         String user = "logalicious";
-        String lpath = LogUtility.logPath.toString();
+        String lpath = path.toString();
         char[] seed = lpath.toCharArray();
         String dbConnUrl;
         String password;
@@ -89,70 +244,371 @@ class LogDatabase {
         try {
             // Generate password for log Db
             lpass = LogUtility.generatePassword(seed);
-        } catch (NoSuchAlgorithmException e) { return null;}
+        } catch (NoSuchAlgorithmException e) {
+            throw new SQLException(e.toString());
+        }
 
 
         // Create password statement from generated char array password
         password = LogDBStrings.PWD.concat(String.valueOf(lpass));
 
         // Execute the url to open existing database
-        conn = DriverManager.getConnection(dbConnUrl, user, password);
+        Connection conn = DriverManager.getConnection(dbConnUrl, user, password);
+
+        // Check connection is usable before handing it out
+        if (conn == null || !conn.isValid(1000)) {
+            throw new SQLException("Cannot open connection to database");
+        }
+
         return conn;
     }
 
-    private static void initialise() throws IOException {
+    private void indexInBackground(int writes) {
+
+        // Index new entries once indexBatchSize of them have been written
+        if (LogWriter.indexBatchSize <= 0
+                || writesSinceIndex.addAndGet(writes) < LogWriter.indexBatchSize) {
+            return;
+        }
+        writesSinceIndex.set(0);
+
+        LogScheduler.execute(this::indexLog);
+    }
+
+    private void indexLog() {
+        // Indexes the words of every entry written since the last pass
+
+        synchronized (indexLock) {
+
+            lock.readLock().lock();
+            try {
+                indexNewEntries();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+    }
+
+    private void indexNewEntries() {
+        // Called holding indexLock and the read lock, or the write lock
+        // which keeps any other pass out
+
+        LogConnection connection = null;
+
+        try {
+            connection = borrowConnection();
+            Connection conn = connection.getConnection();
+
+            // Inserts commit in id order under insertLock so no entry
+            // below the cursor can still turn up once it has moved past
+            long lastId = queryCursor(
+                    connection.prepare(LogDBStrings.QUERY_CURSOR), LogIndex.CURSOR_NAME);
+
+            while (true) {
+
+                // Entries are read back so compressed messages and arguments are indexed
+                List<LogEntry> entries = queryLog(connection.prepare(LogDBStrings.QUERY),
+                        Level.ALL, lastId, Long.MAX_VALUE, LogIndex.PASS_SIZE);
+
+                if (entries.isEmpty()) {
+                    break;
+                }
+
+                LogIndex index = new LogIndex();
+                for (LogEntry entry : entries) {
+                    index.add(entry);
+                }
+
+                // The words and the cursor past them are written together
+                conn.setAutoCommit(false);
+
+                try {
+                    PreparedStatement insert = connection.prepare(LogDBStrings.INSERT_TERMS);
+                    index.write(insert);
+                    insert.executeBatch();
+
+                    PreparedStatement cursor = connection.prepare(LogDBStrings.UPDATE_CURSOR);
+                    setCursorParameters(cursor, LogIndex.CURSOR_NAME, index.getLastId());
+                    cursor.executeUpdate();
+
+                    conn.commit();
+
+                } catch (SQLException e) {
+                    conn.rollback();
+                    throw e;
+
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+
+                lastId = index.getLastId();
+            }
+
+        } catch (SQLException e) {
+
+            System.err.println("SEVERE: Cannot index log database "
+                    .concat(e.toString()));
+
+        } finally {
+            releaseConnection(connection);
+        }
+    }
+
+    private LogConnection initialise() throws IOException {
 
         // Install JVM shutdown hook to cleanup on unexpected shutdown
         LogUtility.hookJvmShutdown();
+        LogMetrics.register();
+
+        Connection conn;
 
         // Check for existing log db file at path
-        if (!LogUtility.getLogFileExists()) {
+        if (!Files.exists(path)) {
 
             try {
-                // No existing db so create one
-                if (createDatabase()) {
-                    // If successful create schema
-                    createSchema();
-
-                } else throw new IOException("SEVERE: Cannot create new database");
+                // No existing db so create one and its schema
+                conn = createDatabase();
+                createSchema(conn);
 
             } catch (SQLException e) {
-                throw new IOException(e.toString());
+                throw new IOException("SEVERE: Cannot create new database ".concat(e.toString()));
             }
 
         } else {
             // There is an existing db so try opening it
             try {
-                if (!openDatabase()) {
-                    // Database could not be opened due to connection issue not file
-                    throw new IOException("SEVERE: Cannot open connection to existing database");
-                }
+                conn = openDatabase();
+
             } catch (SQLException e) {
                 // There is a problem with the database so delete and create new one
-                if (LogUtility.deleteLog()) {
+                if (path.toFile().delete()) {
                     // Deletion successful so try creating new Db
                     try {
-                        // Check creation was successful
-                        if (createDatabase()) {
-                            createSchema();
-
-                        } else throw new IOException("SEVERE: Cannot create new database");
+                        conn = createDatabase();
+                        createSchema(conn);
 
                     } catch (SQLException err) {
-                        throw new IOException(err.toString());
+                        throw new IOException("SEVERE: Cannot create new database ".concat(err.toString()));
                     }
                 } else throw new IOException("SEVERE: Cannot delete existing database");
+
+                return new LogConnection(conn);
+            }
+
+            try {
+                migrateSchema(conn);
+
+            } catch (SQLException e) {
+                // The database opened so holds entries, leave it for the next attempt
+                // or for someone to recover rather than deleting the log history
+                try {
+                    conn.close();
+                } catch (SQLException err) {
+                    // Already failing so nothing more to do
+                }
+                throw new IOException("SEVERE: Cannot migrate existing database ".concat(e.toString()));
+            }
+        }
+
+        return new LogConnection(conn);
+    }
+
+    private static boolean isSparse(LogConnection connection, LogQuery query)
+            throws SQLException {
+        // Decides whether a query finds its entries through the severity index or
+        // by reading the time index in order, whichever reads fewer rows
+
+        if (!query.isSeverityFiltered()) {
+            return false;
+        }
+
+        long rows;
+        try (ResultSet result = connection.prepare(LogDBStrings.COUNT_LOGS).executeQuery()) {
+            result.next();
+            rows = result.getLong(1);
+        }
+
+        // Sorting n matches costs about as much as reading limit * rows / n in
+        // time order, the two meet at the square root of limit * rows
+        long bound = Math.max(query.getLimit(), (long) Math.sqrt((double) query.getLimit() * rows));
+
+        PreparedStatement count = connection.prepare(LogDBStrings.COUNT_SEVERITY);
+        count.setInt(1, query.getSeverity().intValue());
+        count.setLong(2, bound);
+
+        try (ResultSet result = count.executeQuery()) {
+            result.next();
+            return result.getLong(1) < bound;
+        }
+    }
+
+    private static void migrateSchema(Connection conn) throws SQLException {
+
+        // Apply each change to the schema in the order it was made
+        migrateStringTime(conn);
+        migrateSentFlag(conn);
+
+        try (Statement statement = conn.createStatement()) {
+            statement.execute(LogDBStrings.CREATE_CURSORS);
+            // Older rows are single occurrences last seen at their Epoch
+            statement.execute(LogDBStrings.ADD_REPEATS);
+            statement.execute(LogDBStrings.ADD_LAST_SEEN);
+            statement.execute(LogDBStrings.ADD_PACKED);
+            statement.execute(LogDBStrings.ADD_ARGS);
+            // Indexes are built over existing rows the first time
+            statement.execute(LogDBStrings.CREATE_TIME_INDEX);
+            statement.execute(LogDBStrings.CREATE_RECENT_INDEX);
+            statement.execute(LogDBStrings.CREATE_SEVERITY_INDEX);
+            // Existing entries are indexed by the first pass as its cursor starts at 0
+            statement.execute(LogDBStrings.CREATE_TERMS);
+        }
+    }
+
+    private static void migrateSentFlag(Connection conn) throws SQLException {
+        // Replaces the Sent column with an id primary key and a sender cursor
+
+        try (Statement statement = conn.createStatement();
+             ResultSet result = statement.executeQuery(LogDBStrings.HAS_SENT_FLAG)) {
+
+            if (!result.next() || result.getInt(1) == 0) {
+                // Already using the current schema
+                return;
             }
         }
+
+        try (Statement statement = conn.createStatement()) {
+
+            // Existing rows are numbered in the order they were written
+            statement.execute(LogDBStrings.ADD_ID);
+            statement.execute(LogDBStrings.ADD_PRIMARY_KEY);
+            statement.execute(LogDBStrings.CREATE_CURSORS);
+
+            // Entries up to the last one flagged as sent have been emailed
+            long lastSent;
+            try (ResultSet result = statement.executeQuery(LogDBStrings.QUERY_LAST_SENT)) {
+                result.next();
+                lastSent = result.getLong(1);
+            }
+            updateCursor(conn, LogSender.CURSOR_NAME, lastSent);
+
+            statement.execute(LogDBStrings.DROP_SENT_INDEX);
+            statement.execute(LogDBStrings.DROP_SENT);
+        }
+    }
+
+    private static void migrateStringTime(Connection conn) throws SQLException {
+        // Converts databases written with Date and Time string columns
+        // to a single epoch millisecond column
+
+        try (Statement statement = conn.createStatement();
+             ResultSet result = statement.executeQuery(LogDBStrings.HAS_STRING_TIME)) {
+
+            if (!result.next() || result.getInt(1) == 0) {
+                // Already using the current schema
+                return;
+            }
+        }
+
+        // Strings were written by the old formatter in the default time zone
+        DateTimeFormatter oldFormat = DateTimeFormatter.ofPattern("dd MMM yyyy HH:mm:ss");
+        ZoneId zone = ZoneId.systemDefault();
+
+        conn.setAutoCommit(false);
+
+        try (Statement statement = conn.createStatement()) {
+
+            statement.execute(LogDBStrings.ADD_EPOCH);
+
+            // Prepared after the column is added so it can be resolved
+            try (PreparedStatement update = conn.prepareStatement(LogDBStrings.UPDATE_EPOCH);
+                 ResultSet result = statement.executeQuery(LogDBStrings.QUERY_STRING_TIME)) {
+
+                while (result.next()) {
+
+                    long epoch;
+                    try {
+                        epoch = LocalDateTime.parse(
+                                result.getString(2) + " " + result.getString(3), oldFormat)
+                                .atZone(zone).toInstant().toEpochMilli();
+
+                    } catch (DateTimeParseException | NullPointerException e) {
+                        // Keep the row even if its time cannot be recovered
+                        epoch = 0;
+                    }
+
+                    update.setLong(1, epoch);
+                    update.setLong(2, result.getLong(1));
+                    update.addBatch();
+                }
+
+                update.executeBatch();
+            }
+
+            statement.execute(LogDBStrings.DROP_DATE);
+            statement.execute(LogDBStrings.DROP_TIME);
+            conn.commit();
+
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private LogConnection getArchive(int segment) throws SQLException {
+
+        synchronized (archives) {
+
+            LogConnection archive = archives.get(segment);
+
+            if (archive == null) {
+
+                Path file = LogUtility.getArchivePath(path, segment);
+                if (!Files.exists(file)) {
+                    return null;
+                }
+
+                archive = new LogConnection(openArchive(file));
+                archives.put(segment, archive);
+            }
+
+            return archive;
+        }
+    }
+
+    private void closeArchives() {
+
+        synchronized (archives) {
+            for (LogConnection archive : archives.values()) {
+                archive.close();
+            }
+            archives.clear();
+        }
+    }
+
+    private Connection openArchive(Path archive) throws SQLException {
+
+        // Archived segments are only ever opened for reading
+        StringBuilder url = new StringBuilder()
+                .append(LogDBStrings.OPEN)
+                .append(archive.toString())
+                .append(LogDBStrings.EXISTING)
+                .append(LogDBStrings.READ_ONLY)
+                .append(LogDBStrings.USE_ENCRYPTION);
+
+        // Key is still derived from the live log path the segment was created at
+        return executeSql(url);
     }
 
-    private static boolean openDatabase() throws SQLException {
+    private Connection openDatabase() throws SQLException {
 
         // Connection strings
         StringBuilder url;
 
         // Need to remove extension from file name
-        String logFileName = LogUtility.logPath.toString();
+        String logFileName = path.toString();
 
         url = new StringBuilder()
                 .append(LogDBStrings.OPEN)
@@ -162,86 +618,327 @@ class LogDatabase {
                 .append(LogDBStrings.USE_ENCRYPTION);
 
         // Execute connection URL to open existing database
-        Connection connection = executeSql(url);
+        return executeSql(url);
+    }
+
+    private static long queryCursor(PreparedStatement statement, String sender)
+            throws SQLException {
 
-        // Return status of connection validity
-        return (connection != null && connection.isValid(1000));
+        statement.setString(1, sender);
+
+        try (ResultSet result = statement.executeQuery()) {
+            // Nothing has been sent if the sender has no cursor yet
+            return result.next() ? result.getLong(1) : 0;
+        }
     }
 
-    private static void openDatabaseConnection() {
+    private static List<LogEntry> queryLog(PreparedStatement statement, Level severity,
+                                           long afterId, long toId, int limit)
+            throws SQLException {
 
-        if (conn == null) {
-            try {
+        // Insert query parameters into statement
+        statement.setLong(1, afterId);
+        statement.setLong(2, toId);
+        statement.setInt(3, severity.intValue());
+        statement.setInt(4, limit);
+
+        return readEntries(statement, limit);
+    }
+
+    private static List<LogEntry> readEntries(PreparedStatement statement, int limit)
+            throws SQLException {
 
-                LogDatabase.initialise();
+        statement.setFetchSize(limit);
+        List<LogEntry> entries = new ArrayList<>(limit);
 
-            } catch (IOException e) {
+        // Execute prepared SQL statement and read the rows before closing the result
+        try (ResultSet result = statement.executeQuery()) {
+
+            while (result.next()) {
+
+                int sevValue = result.getInt(LogDBStrings.SEVERITY);
+
+                // Message is either plain text or compressed
+                byte[] packed = result.getBytes(LogDBStrings.PACKED);
+                String message = packed != null
+                        ? LogUtility.decompress(packed)
+                        : result.getString(LogDBStrings.MESSAGE);
+
+                // Placeholders left in the message are filled in now it is read
+                String args = result.getString(LogDBStrings.ARGS);
+                if (args != null) {
+                    message = LogUtility.formatMessage(message, LogUtility.unpackArgs(args));
+                }
 
-                System.err.println("SEVERE: Cannot write to database "
-                        .concat(e.toString()));
+                entries.add(new LogEntry(
+                        result.getLong(LogDBStrings.ID),
+                        result.getLong(LogDBStrings.EPOCH),
+                        LogUtility.parseLevel(result.getString(LogDBStrings.SEVERITY_NAME), sevValue),
+                        result.getString(LogDBStrings.CLASS),
+                        message,
+                        result.getInt(LogDBStrings.REPEATS),
+                        result.getLong(LogDBStrings.LAST_SEEN)));
             }
         }
+
+        return entries;
     }
 
-    private static ResultSet queryLog(int severity, boolean isSent) throws SQLException {
+    private static List<LogEntry> queryPage(PreparedStatement cursorQuery,
+                                            PreparedStatement logQuery, String sender,
+                                            Level severity, boolean isSent,
+                                            long afterId, int limit) throws SQLException {
 
-        ResultSet result;
+        // Sent entries are those at or before the sender's cursor
+        long lastSent = queryCursor(cursorQuery, sender);
 
-        // Initialise SQL query to retrieve log entries
-        statement = conn.prepareStatement(LogDBStrings.QUERY);
+        if (isSent) {
+            return queryLog(logQuery, severity, afterId, lastSent, limit);
+        }
 
-        // Insert query parameters into statement
-        statement.setInt(1, severity);
-        statement.setBoolean(2, isSent);
+        return queryLog(logQuery, severity, Math.max(afterId, lastSent), Long.MAX_VALUE, limit);
+    }
+
+    private void releaseConnection(LogConnection connection) {
+
+        if (connection == null) {
+            return;
+        }
 
-        // Execute prepared SQL statement
-        result = statement.executeQuery();
-        return result;
+        if (connection.isClosed()) {
+            // Broken connection so make room for a new one
+            synchronized (pool) {
+                openConnections--;
+            }
+        } else {
+            pool.offer(connection);
+        }
     }
 
+    private static List<LogEntry> runQuery(LogConnection connection, LogQuery query)
+            throws SQLException {
 
-    static void closeDatabase() {
+        if (query.isSearch()) {
+            return searchLog(connection, query);
+        }
 
-        // Close any existing connection
-        if (conn != null) {
-            try {
-                if (!conn.isClosed()) {
-                    conn.close();
+        // Each combination of filters is prepared once per connection
+        PreparedStatement statement =
+                connection.prepare(query.toSql(isSparse(connection, query)));
+
+        query.setParameters(statement);
+        return readEntries(statement, query.getLimit());
+    }
+
+    private static List<LogEntry> searchLog(LogConnection connection, LogQuery query)
+            throws SQLException {
+
+        LogIndex.Postings matches = null;
+
+        // Keep the entries containing every word
+        for (String term : query.getTerms()) {
+
+            boolean isPrefix = term.endsWith("%");
+            PreparedStatement statement = connection.prepare(isPrefix
+                    ? LogDBStrings.QUERY_TERM_PREFIX
+                    : LogDBStrings.QUERY_TERM);
+            statement.setString(1, term);
+
+            LogIndex.Postings found = new LogIndex.Postings();
+            List<LogIndex.Postings> rows = new ArrayList<>();
+
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+
+                    if (isPrefix) {
+                        // Each row is in id order but rows of different words are not
+                        LogIndex.Postings row = new LogIndex.Postings();
+                        row.unpack(result.getBytes(1));
+                        rows.add(row);
+
+                    } else {
+                        // Rows of one word come back in id order
+                        found.unpack(result.getBytes(1));
+                    }
                 }
-            } catch (SQLException e) {
+            }
+
+            if (isPrefix) {
+                found = LogIndex.Postings.union(rows);
+            }
+
+            if (matches == null) {
+                matches = found;
+            } else {
+                matches.retainAll(found);
+            }
 
-                System.err.println("SEVERE: Cannot close existing database connection "
-                        .concat(e.toString()));
+            if (matches.isEmpty()) {
+                return new ArrayList<>();
             }
-            // Reset connection
-            conn = null;
+        }
+
+        long[] ids = matches.select(query);
+        List<LogEntry> entries = new ArrayList<>(query.getLimit());
+
+        // Read the matches in order a chunk at a time until the severity
+        // and class filters have let enough through
+        int chunk = Math.min(Math.max(query.getLimit() * 2, 100), 1000);
+
+        for (int start = 0; start < ids.length && entries.size() < query.getLimit(); start += chunk) {
+
+            int end = Math.min(start + chunk, ids.length);
+            Map<Long, LogEntry> found = new HashMap<>();
+
+            // Statements vary with the ids so are not kept with the connection
+            try (PreparedStatement statement = connection.getConnection()
+                    .prepareStatement(query.toSearchSql(ids, start, end))) {
+
+                query.setSearchParameters(statement);
+                for (LogEntry entry : readEntries(statement, end - start)) {
+                    found.put(entry.id, entry);
+                }
+            }
+
+            for (int i = start; i < end && entries.size() < query.getLimit(); i++) {
+                LogEntry entry = found.get(ids[i]);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    private static void setInsertParameters(PreparedStatement statement, LogEntry entry)
+            throws SQLException {
+
+        statement.setLong(LogDBStrings.EPOCH, entry.timestamp);
+        statement.setInt(LogDBStrings.SEVERITY, entry.severity.intValue());
+        statement.setString(LogDBStrings.SEVERITY_NAME, entry.severity.toString());
+        statement.setString(LogDBStrings.CLASS, entry.callingClass);
+        // Large messages are stored compressed in place of the text
+        if (LogWriter.compressThreshold > 0 && entry.message != null
+                && entry.message.length() >= LogWriter.compressThreshold) {
+
+            statement.setNull(LogDBStrings.MESSAGE, Types.CLOB);
+            statement.setBytes(LogDBStrings.PACKED, LogUtility.compress(entry.message));
+
+        } else {
+            statement.setString(LogDBStrings.MESSAGE, entry.message);
+            statement.setNull(LogDBStrings.PACKED, Types.BLOB);
+        }
+
+        statement.setInt(LogDBStrings.REPEATS, entry.repeats);
+        statement.setLong(LogDBStrings.LAST_SEEN, entry.lastSeen);
+
+        if (entry.args != null) {
+            statement.setString(LogDBStrings.ARGS, LogUtility.packArgs(entry.args));
+        } else {
+            statement.setNull(LogDBStrings.ARGS, Types.CLOB);
         }
     }
 
-    static void insertLog(
-            String time, String date, Level severity,
-            String callingClass, String message) {
+    private static void updateCursor(Connection conn, String sender, long lastId)
+            throws SQLException {
 
-        // Check if an existing log db exceeds max size and delete if so
-        checkDatabaseSize();
-        openDatabaseConnection();
+        try (PreparedStatement statement = conn.prepareStatement(LogDBStrings.UPDATE_CURSOR)) {
+            setCursorParameters(statement, sender, lastId);
+            statement.executeUpdate();
+        }
+    }
+
+    private static void setCursorParameters(PreparedStatement statement, String sender,
+                                            long lastId) throws SQLException {
+
+        statement.setString(1, sender);
+        statement.setLong(2, lastId);
+        statement.setString(3, sender);
+    }
 
+
+    @Override
+    void closeDatabase() {
+
+        // Wait for any operations in progress to finish
+        lock.writeLock().lock();
         try {
-            // Initialise SQL statement to insert log records
-            statement = conn.prepareStatement(LogDBStrings.INSERT);
+            synchronized (pool) {
+                // Close and discard every pooled connection
+                LogConnection connection;
+                while ((connection = pool.poll()) != null) {
+                    connection.close();
+                }
+
+                // Reset pool
+                openConnections = 0;
+                isInitialised = false;
+            }
+
+            // Segments are renumbered when the log rolls
+            closeArchives();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    void flush(boolean toDisk) {
+
+        LogConnection connection = null;
+        lock.readLock().lock();
+
+        try {
+            connection = borrowConnection();
+
+            // Committed changes are otherwise written by H2 after its write delay
+            connection.prepare(toDisk
+                    ? LogDBStrings.CHECKPOINT_SYNC
+                    : LogDBStrings.CHECKPOINT).execute();
+
+        } catch (SQLException e) {
+
+            System.err.println("SEVERE: Cannot flush log database "
+                    .concat(e.toString()));
+
+        } finally {
+            releaseConnection(connection);
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    long getSize() throws IOException {
+
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    @Override
+    void insertLog(LogEntry entry) {
+
+        // Check if an existing log db exceeds max size and roll it over if so
+        checkDatabaseSize(1);
+
+        LogConnection connection = null;
+        lock.readLock().lock();
+
+        try {
+            connection = borrowConnection();
+
+            // Get cached SQL statement to insert log records
+            PreparedStatement statement = connection.prepare(LogDBStrings.INSERT);
 
             // Insert parameters into statement
-            statement.setString(LogDBStrings.TIME, time);
-            statement.setString(LogDBStrings.DATE, date);
-            statement.setInt(LogDBStrings.SEVERITY, severity.intValue());
-            statement.setString(LogDBStrings.SEVERITY_NAME, severity.toString());
-            statement.setString(LogDBStrings.CLASS, callingClass);
-            statement.setString(LogDBStrings.MESSAGE, message);
-            // Set whether the log has been sent
-            statement.setBoolean(LogDBStrings.SENT, false);
+            setInsertParameters(statement, entry);
 
             // Execute the statement
-            int numInsertedRecords = statement.executeUpdate();
+            long start = System.nanoTime();
+            int numInsertedRecords;
+            synchronized (insertLock) {
+                numInsertedRecords = statement.executeUpdate();
+            }
+            LogMetrics.inserted(System.nanoTime() - start);
 
             if (numInsertedRecords < 1) {
                 // The statement was not executed
@@ -249,44 +946,208 @@ class LogDatabase {
                 throw new SQLException();
             }
 
+            // Let the sender know if it wants this entry
+            LogMetrics.entryWritten(entry.severity);
+            LogWatcher.entriesWritten(entry.severity, 1);
+            indexInBackground(1);
+
         } catch (SQLException e) {
             // The statement wasn't loaded
             System.err.println("SEVERE: Cannot execute SQL statement "
                     .concat(e.toString()));
+
+        } finally {
+            releaseConnection(connection);
+            lock.readLock().unlock();
         }
     }
 
-    static void markAsSent(Level severity) {
+    @Override
+    void insertLogs(List<LogEntry> entries) {
+
+        // Check if an existing log db exceeds max size and roll it over if so
+        checkDatabaseSize(entries.size());
 
-        openDatabaseConnection();
+        LogConnection connection = null;
+        lock.readLock().lock();
 
         try {
-            // Initialise SQL query to retrieve and mark log records as read
-            statement = conn.prepareStatement(LogDBStrings.UPDATE_AS_READ);
-            statement.setInt(1,severity.intValue());
+            connection = borrowConnection();
+            Connection conn = connection.getConnection();
+
+            // Write the whole batch in a single transaction
+            conn.setAutoCommit(false);
+
+            try {
+                PreparedStatement statement = connection.prepare(LogDBStrings.INSERT);
+                long start = System.nanoTime();
+
+                for (LogEntry entry : entries) {
+                    setInsertParameters(statement, entry);
+                    statement.addBatch();
+                }
+
+                synchronized (insertLock) {
+                    statement.executeBatch();
+                    conn.commit();
+                }
+                LogMetrics.inserted(System.nanoTime() - start);
+
+                // Let the sender know about any entries it wants
+                for (LogEntry entry : entries) {
+                    LogMetrics.entryWritten(entry.severity);
+                    LogWatcher.entriesWritten(entry.severity, 1);
+                }
+                indexInBackground(entries.size());
+
+            } catch (SQLException e) {
+                // Undo the partially written batch
+                conn.rollback();
+                throw e;
+
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            // The batch wasn't written
+            System.err.println("SEVERE: Cannot execute SQL batch "
+                    .concat(e.toString()));
+
+        } finally {
+            releaseConnection(connection);
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    void markAsSent(String sender, long lastId) {
+
+        LogConnection connection = null;
+        lock.readLock().lock();
+
+        try {
+            connection = borrowConnection();
+
+            // Advance the sender's cursor past the entries it has sent
+            PreparedStatement statement = connection.prepare(LogDBStrings.UPDATE_CURSOR);
+            setCursorParameters(statement, sender, lastId);
             statement.executeUpdate();
 
         } catch (SQLException e) {
             // The statement wasn't loaded
             System.err.println("SEVERE: Cannot update database "
                     .concat(e.toString()));
+
+        } finally {
+            releaseConnection(connection);
+            lock.readLock().unlock();
         }
     }
 
-    static ResultSet getLog(Level severity, boolean isSent) {
+    @Override
+    void open() {
 
-        // Run query to retrieve log entries
-        openDatabaseConnection();
+        LogConnection connection = null;
+        lock.readLock().lock();
 
         try {
-            return queryLog(severity.intValue(), isSent);
+            // First connection opens or creates the database
+            connection = borrowConnection();
+
+        } catch (SQLException e) {
+
+            System.err.println("SEVERE: Cannot open log database "
+                    .concat(e.toString()));
+
+        } finally {
+            releaseConnection(connection);
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    List<LogEntry> getLogPage(int segment, String sender, Level severity,
+                              boolean isSent, long afterId, int limit) {
+        // Reads the next page of entries after afterId from the live log
+        // (segment 0) or an archived segment
+
+        LogConnection connection = null;
+        lock.readLock().lock();
+
+        try {
+            if (segment > 0) {
+
+                LogConnection archive = getArchive(segment);
+                if (archive == null) {
+                    return new ArrayList<>();
+                }
+
+                // Readers take turns as the archive's statements are shared
+                synchronized (archive) {
+                    return queryPage(archive.prepare(LogDBStrings.QUERY_CURSOR),
+                            archive.prepare(LogDBStrings.QUERY), sender,
+                            severity, isSent, afterId, limit);
+                }
+            }
+
+            connection = borrowConnection();
+
+            // Get cached SQL queries to retrieve log entries
+            return queryPage(connection.prepare(LogDBStrings.QUERY_CURSOR),
+                    connection.prepare(LogDBStrings.QUERY), sender,
+                    severity, isSent, afterId, limit);
 
         } catch (SQLException e) {
 
             // The statement wasn't loaded
-            System.err.println("SEVERE: Cannot prepare SQL statement "
+            System.err.println("SEVERE: Cannot read log database "
+                    .concat(e.toString()));
+            return new ArrayList<>();
+
+        } finally {
+            releaseConnection(connection);
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    List<LogEntry> query(LogQuery query, int segment) {
+        // Runs a query against the live log (segment 0) or an archived segment
+
+        if (query.isSearch() && segment == 0) {
+            // Searches include every entry written so far
+            indexLog();
+        }
+
+        LogConnection connection = null;
+        lock.readLock().lock();
+
+        try {
+            if (segment > 0) {
+
+                LogConnection archive = getArchive(segment);
+                if (archive == null) {
+                    return new ArrayList<>();
+                }
+
+                synchronized (archive) {
+                    return runQuery(archive, query);
+                }
+            }
+
+            connection = borrowConnection();
+            return runQuery(connection, query);
+
+        } catch (SQLException e) {
+
+            System.err.println("SEVERE: Cannot query log database "
                     .concat(e.toString()));
-            return null;
+            return new ArrayList<>();
+
+        } finally {
+            releaseConnection(connection);
+            lock.readLock().unlock();
         }
     }
 }
@@ -0,0 +1,95 @@
+package com.eo;
+
+import java.util.logging.Level;
+
+/**
+ * A single entry of the log database as written by LogWriter or read by LogReader
+ */
+public class LogEntry {
+
+    final long id;
+    final long timestamp;
+    final Level severity;
+    final String callingClass;
+    final String message;
+    final int repeats;
+    final long lastSeen;
+    // Placeholder values for a message that is only formatted when read, otherwise null
+    final String[] args;
+    // Shard the entry was read from, set as shards are merged as ids repeat across them
+    int shard = 0;
+
+    LogEntry(long timestamp, Level severity,
+             String callingClass, String message) {
+
+        // A single occurrence is last seen when it is first seen
+        this(timestamp, severity, callingClass, message, null);
+    }
+
+    LogEntry(long timestamp, Level severity, String callingClass,
+             String message, String[] args) {
+
+        // Not yet stored so has no id
+        this(0, timestamp, severity, callingClass, message, 1, timestamp, args);
+    }
+
+    LogEntry(long id, long timestamp, Level severity, String callingClass,
+             String message, int repeats, long lastSeen) {
+
+        // Read entries have their message already formatted
+        this(id, timestamp, severity, callingClass, message, repeats, lastSeen, null);
+    }
+
+    LogEntry(long id, long timestamp, Level severity, String callingClass,
+             String message, int repeats, long lastSeen, String[] args) {
+
+        this.id = id;
+        this.timestamp = timestamp;
+        this.severity = severity;
+        this.callingClass = callingClass;
+        this.message = message;
+        this.repeats = repeats;
+        this.lastSeen = lastSeen;
+        this.args = args;
+    }
+
+    /**
+     * @return The class the entry was logged from
+     */
+    public String getCallingClass() { return callingClass; }
+
+    /**
+     * @return The position of the entry within its log database
+     */
+    public long getId() { return id; }
+
+    /**
+     * @return The shard of a sharded log the entry was read from, otherwise 0
+     */
+    public int getShard() { return shard; }
+
+    /**
+     * @return The time the last repeat of the entry was logged in milliseconds since the epoch
+     */
+    public long getLastSeen() { return lastSeen; }
+
+    /**
+     * @return The message text of the entry
+     */
+    public String getMessage() { return message; }
+
+    /**
+     * @return How many times the entry was logged within the coalescing window
+     */
+    public int getRepeatCount() { return repeats; }
+
+    /**
+     * @return The severity level of the entry
+     */
+    public Level getSeverity() { return severity; }
+
+    /**
+     * @return The time the entry was first logged in milliseconds since the epoch
+     */
+    public long getTimestamp() { return timestamp; }
+}
@@ -0,0 +1,152 @@
+package com.eo;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+public class LogHandler extends Handler {
+
+    /**
+     * Used to write java.util.logging records to the log database. The time,
+     * level and class come from the record and any {0} placeholders in the
+     * message are only filled in when the entry is read
+     *
+     * <p>
+     * <b>Logging properties</b>
+     * <ul>
+     * <li><b>com.eo.LogHandler.level</b> - Records below this level are discarded - <b>Default:</b> ALL
+     * <li><b>com.eo.LogHandler.sourceClass</b> - Store the record's source class instead of the
+     * logger name. Loggers that are not given the source class look it up from the
+     * stack - <b>Default:</b> False
+     * </p></ul>
+     */
+
+    private volatile boolean useSourceClass;
+
+
+    public LogHandler() {
+
+        LogManager manager = LogManager.getLogManager();
+        String prefix = LogHandler.class.getName();
+
+        String level = manager.getProperty(prefix + ".level");
+        try {
+            setLevel(level != null ? Level.parse(level.trim()) : Level.ALL);
+        } catch (IllegalArgumentException e) {
+            setLevel(Level.ALL);
+        }
+
+        useSourceClass = Boolean.parseBoolean(manager.getProperty(prefix + ".sourceClass"));
+    }
+
+
+    private static boolean hasPlaceholders(String message) {
+
+        // Same test java.util.logging.Formatter uses before formatting parameters
+        return message.contains("{0") || message.contains("{1")
+                || message.contains("{2") || message.contains("{3");
+    }
+
+    private static String localise(LogRecord record) {
+
+        String message = record.getMessage();
+        ResourceBundle bundle = record.getResourceBundle();
+
+        if (bundle != null && message != null) {
+            try {
+                return bundle.getString(message);
+            } catch (MissingResourceException e) {
+                // Not a key so log the message as it is
+            }
+        }
+
+        return message;
+    }
+
+    private static String[] toArgs(Object[] params) {
+
+        // Values are captured as text now as the objects may change before they are read
+        String[] args = new String[params.length];
+        for (int i = 0; i < params.length; i++) {
+            args[i] = String.valueOf(params[i]);
+        }
+        return args;
+    }
+
+    private static String withThrown(String message, Throwable thrown) {
+
+        StringWriter trace = new StringWriter();
+        trace.append(message).append(System.lineSeparator());
+        thrown.printStackTrace(new PrintWriter(trace));
+
+        return trace.toString();
+    }
+
+
+    /**
+     * @param useSourceClass True to store the record's source class instead of the logger name
+     */
+    public void setUseSourceClass(boolean useSourceClass) { this.useSourceClass = useSourceClass; }
+
+    @Override
+    public void close() {
+        // Nothing held open, the log database is closed when the Jvm quits
+
+        setLevel(Level.OFF);
+    }
+
+    @Override
+    public void flush() {
+        // Records are written as they are published, or by the async flusher
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+
+        // Handler level and filter, then LogWriter.minLevel
+        if (!isLoggable(record) || !LogWriter.isLoggable(record.getLevel())) {
+            return;
+        }
+
+        Level level = record.getLevel();
+
+        // The logger name is normally the class name and needs no stack walk
+        String cClassName = useSourceClass
+                ? record.getSourceClassName()
+                : record.getLoggerName();
+
+        if (cClassName == null) {
+            cClassName = LogUtility.UNKNOWN_CLASS;
+        }
+
+        if (!LogWriter.isKept(cClassName, level)) {
+            return;
+        }
+
+        String message = localise(record);
+        if (message == null) {
+            message = "";
+        }
+
+        Object[] params = record.getParameters();
+        String[] args = params != null && params.length > 0 && hasPlaceholders(message)
+                ? toArgs(params)
+                : null;
+
+        if (record.getThrown() != null) {
+            if (args != null) {
+                // Stack trace must not be read as a pattern so format now
+                message = LogUtility.formatMessage(message, args);
+                args = null;
+            }
+            message = withThrown(message, record.getThrown());
+        }
+
+        LogWriter.write(new LogEntry(record.getMillis(), level, cClassName, message, args));
+    }
+}
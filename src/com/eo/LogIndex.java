@@ -0,0 +1,280 @@
+package com.eo;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index of the words in log messages. Entries are indexed in passes
+ * after they are written, each pass storing one row per word holding the ids
+ * and times of the entries it was found in. A row per word rather than per
+ * entry and word keeps the index cheap to write
+ */
+class LogIndex {
+
+    // Name the index's cursor of indexed entries is stored under
+    static final String CURSOR_NAME = "LogIndex";
+    // Most entries indexed in one pass and transaction
+    static final int PASS_SIZE = 50000;
+
+    private final Map<String, Postings> terms = new HashMap<>();
+    private final Set<String> entryTerms = new HashSet<>();
+    private long lastId = 0;
+
+
+    /**
+     * Ids and times of entries containing a word, in id order
+     */
+    static final class Postings {
+
+        private long[] ids;
+        private long[] epochs;
+        private int size = 0;
+
+        Postings() {
+            this(16);
+        }
+
+        private Postings(int capacity) {
+
+            ids = new long[Math.max(16, capacity)];
+            epochs = new long[ids.length];
+        }
+
+        private static Postings union(Postings first, Postings second) {
+
+            // Both are in id order so walk them together, keeping an entry found in both once
+            Postings merged = new Postings(first.size + second.size);
+            int i = 0;
+            int j = 0;
+
+            while (i < first.size || j < second.size) {
+
+                if (j == second.size || (i < first.size && first.ids[i] < second.ids[j])) {
+                    merged.add(first.ids[i], first.epochs[i++]);
+
+                } else if (i == first.size || second.ids[j] < first.ids[i]) {
+                    merged.add(second.ids[j], second.epochs[j++]);
+
+                } else {
+                    // An entry can contain several words with the same prefix
+                    merged.add(first.ids[i], first.epochs[i]);
+                    i++;
+                    j++;
+                }
+            }
+
+            return merged;
+        }
+
+        private static long readVarLong(byte[] bytes, int[] position) {
+
+            long value = 0;
+            int shift = 0;
+            byte b;
+
+            do {
+                b = bytes[position[0]++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            return value;
+        }
+
+        private static void writeVarLong(ByteArrayOutputStream out, long value) {
+
+            // Seven bits at a time, the top bit says whether more follow
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        void add(long id, long epoch) {
+
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                epochs = Arrays.copyOf(epochs, size * 2);
+            }
+
+            ids[size] = id;
+            epochs[size] = epoch;
+            size++;
+        }
+
+        boolean isEmpty() { return size == 0; }
+
+        byte[] pack() {
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size * 3);
+            long id = 0;
+            long epoch = 0;
+
+            // Ids only increase and times mostly do so both are stored as
+            // differences, times zigzag encoded as they can go back slightly
+            for (int i = 0; i < size; i++) {
+
+                writeVarLong(out, ids[i] - id);
+                long delta = epochs[i] - epoch;
+                writeVarLong(out, (delta << 1) ^ (delta >> 63));
+
+                id = ids[i];
+                epoch = epochs[i];
+            }
+
+            return out.toByteArray();
+        }
+
+        void unpack(byte[] packed) {
+
+            int[] position = { 0 };
+            long id = 0;
+            long epoch = 0;
+
+            while (position[0] < packed.length) {
+
+                id += readVarLong(packed, position);
+                long delta = readVarLong(packed, position);
+                epoch += (delta >>> 1) ^ -(delta & 1);
+
+                add(id, epoch);
+            }
+        }
+
+        static Postings union(List<Postings> rows) {
+            // Rows of different words matching a prefix are each in id order,
+            // merged in pairs so each posting is copied once per round
+
+            if (rows.isEmpty()) {
+                return new Postings();
+            }
+
+            while (rows.size() > 1) {
+
+                List<Postings> merged = new ArrayList<>((rows.size() + 1) / 2);
+                for (int i = 0; i < rows.size(); i += 2) {
+                    merged.add(i + 1 < rows.size()
+                            ? union(rows.get(i), rows.get(i + 1))
+                            : rows.get(i));
+                }
+                rows = merged;
+            }
+
+            return rows.get(0);
+        }
+
+        void retainAll(Postings other) {
+
+            // Both are in id order so walk them together
+            int count = 0;
+            int j = 0;
+
+            for (int i = 0; i < size && j < other.size; i++) {
+
+                while (j < other.size && other.ids[j] < ids[i]) {
+                    j++;
+                }
+
+                if (j < other.size && other.ids[j] == ids[i]) {
+                    ids[count] = ids[i];
+                    epochs[count] = epochs[i];
+                    count++;
+                }
+            }
+
+            size = count;
+        }
+
+        private boolean isBefore(int a, int b) {
+
+            return epochs[a] != epochs[b] ? epochs[a] < epochs[b] : ids[a] < ids[b];
+        }
+
+        private void sortByTime(int[] order, int[] spare, int from, int to) {
+            // Merge sort of positions by time then id
+
+            if (to - from < 2) {
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            sortByTime(order, spare, from, middle);
+            sortByTime(order, spare, middle, to);
+
+            // Nearly in time order already as ids are handed out as entries
+            // are written, so most halves need no merging
+            if (!isBefore(order[middle], order[middle - 1])) {
+                return;
+            }
+
+            System.arraycopy(order, from, spare, from, to - from);
+            int i = from;
+            int j = middle;
+
+            for (int k = from; k < to; k++) {
+                if (j == to || (i < middle && !isBefore(spare[j], spare[i]))) {
+                    order[k] = spare[i++];
+                } else {
+                    order[k] = spare[j++];
+                }
+            }
+        }
+
+        long[] select(LogQuery query) {
+            // Ids of entries in the time range and page of the query, in its order
+
+            int[] order = new int[size];
+            int count = 0;
+
+            for (int i = 0; i < size; i++) {
+                if (query.accepts(ids[i], epochs[i])) {
+                    order[count++] = i;
+                }
+            }
+
+            sortByTime(order, new int[count], 0, count);
+
+            long[] selected = new long[count];
+            for (int i = 0; i < count; i++) {
+                selected[i] = ids[order[query.isNewestFirst() ? count - 1 - i : i]];
+            }
+            return selected;
+        }
+    }
+
+
+    void add(LogEntry entry) {
+
+        entryTerms.clear();
+        LogUtility.addTerms(entry.message, entryTerms);
+
+        for (String term : entryTerms) {
+            terms.computeIfAbsent(term, key -> new Postings()).add(entry.id, entry.timestamp);
+        }
+
+        lastId = entry.id;
+    }
+
+    long getLastId() { return lastId; }
+
+    void write(PreparedStatement insert) throws SQLException {
+
+        // Each word gets one row per pass, keyed by the last entry of the pass
+        for (Map.Entry<String, Postings> term : terms.entrySet()) {
+
+            insert.setString(1, term.getKey());
+            insert.setLong(2, lastId);
+            insert.setBytes(3, term.getValue().pack());
+            insert.addBatch();
+        }
+    }
+}
@@ -0,0 +1,1014 @@
+package com.eo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps log entries in files they are only ever appended to, for logs that
+ * are written far more often than they are read. Entries are written in
+ * blocks, each encrypted on its own with AES-GCM behind a header giving the
+ * ids, times and highest severity it holds. The headers of every
+ * INDEX_INTERVAL bytes of blocks are combined into a sparse index kept in
+ * memory, so reads only decrypt the blocks that can hold what they want.
+ * Journals roll into archived segments as the log database does
+ */
+class LogJournal extends LogStore {
+
+    // Start of every journal, followed by the id its entries continue on from
+    private static final int MAGIC = 0x4C4A524E;
+    private static final int FILE_HEADER = 12;
+
+    // Type, length, first and last id, earliest and latest time and highest severity,
+    // then the iv and a checksum of the header so a damaged header can be told
+    // apart from a block cut short
+    private static final int BLOCK_HEADER = 57;
+    private static final int IV_OFFSET = 41;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+
+    // Blocks hold entries, compressed entries or the cursor of a sender
+    private static final byte ENTRIES = 1;
+    private static final byte PACKED_ENTRIES = 2;
+    private static final byte CURSOR = 3;
+
+    // Each entry of the sparse index covers about this many bytes of blocks
+    private static final int INDEX_INTERVAL = 64 * 1024;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    // Ciphers are not thread safe so each thread keeps and reuses its own
+    private static final ThreadLocal<Cipher> CIPHERS = new ThreadLocal<>();
+
+    // Live journal file, archives sit beside it and its path seeds the encryption key
+    private final Path path;
+
+    // Held for reading by every operation and for writing while
+    // the journal is rolled or closed so no file is in use
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Blocks are appended one at a time
+    private final Object appendLock = new Object();
+
+    // Last entry each sender has sent, kept for every segment
+    private final Map<String, Long> cursors = new ConcurrentHashMap<>();
+    // Archives opened by reads, kept until the journal is rolled or closed
+    private final Map<Integer, Segment> archives = new HashMap<>();
+
+    private volatile Segment live;
+    private volatile SecretKeySpec key;
+    // Carried from a rolled journal into its replacement so ids keep increasing
+    private long carriedLastId = 0;
+
+
+    LogJournal(Path path) {
+        this.path = path;
+    }
+
+
+    /**
+     * An open journal file and its sparse index
+     */
+    private static final class Segment {
+
+        private final FileChannel channel;
+        private final List<Span> index = new ArrayList<>();
+        private long lastId;
+        // End of the last whole block, where the next is appended
+        private long size;
+
+        Segment(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void add(Span block) {
+
+            Span last = index.isEmpty() ? null : index.get(index.size() - 1);
+
+            // Start a new index entry once the last covers enough of the file,
+            // or after damaged blocks that were skipped over
+            if (last == null || last.end - last.position >= INDEX_INTERVAL
+                    || last.end != block.position) {
+                last = new Span(block.position);
+                index.add(last);
+            }
+
+            last.add(block);
+            size = block.end;
+
+            if (block.type != CURSOR) {
+                lastId = Math.max(lastId, block.lastId);
+            }
+        }
+    }
+
+    /**
+     * The header of a block, or the combined headers of the blocks
+     * covered by an entry of the sparse index
+     */
+    private static final class Span {
+
+        private final long position;
+        private long end;
+        private byte type;
+        private long firstId = Long.MAX_VALUE;
+        private long lastId = Long.MIN_VALUE;
+        private long minEpoch = Long.MAX_VALUE;
+        private long maxEpoch = Long.MIN_VALUE;
+        private int maxSeverity = Integer.MIN_VALUE;
+
+        Span(long position) {
+
+            this.position = position;
+            this.end = position;
+        }
+
+        Span(Span span) {
+
+            this(span.position);
+            end = span.end;
+            type = span.type;
+            firstId = span.firstId;
+            lastId = span.lastId;
+            minEpoch = span.minEpoch;
+            maxEpoch = span.maxEpoch;
+            maxSeverity = span.maxSeverity;
+        }
+
+        static Span read(ByteBuffer header, long position) {
+
+            Span block = new Span(position);
+            block.type = header.get();
+            block.end = position + BLOCK_HEADER + header.getInt();
+            block.firstId = header.getLong();
+            block.lastId = header.getLong();
+            block.minEpoch = header.getLong();
+            block.maxEpoch = header.getLong();
+            block.maxSeverity = header.getInt();
+            return block;
+        }
+
+        void add(Span block) {
+
+            end = block.end;
+
+            // Cursor blocks hold no entries so only move the end on
+            if (block.type == CURSOR) {
+                return;
+            }
+
+            firstId = Math.min(firstId, block.firstId);
+            lastId = Math.max(lastId, block.lastId);
+            minEpoch = Math.min(minEpoch, block.minEpoch);
+            maxEpoch = Math.max(maxEpoch, block.maxEpoch);
+            maxSeverity = Math.max(maxSeverity, block.maxSeverity);
+        }
+
+        void add(LogEntry entry) {
+
+            minEpoch = Math.min(minEpoch, entry.timestamp);
+            maxEpoch = Math.max(maxEpoch, entry.timestamp);
+            maxSeverity = Math.max(maxSeverity, entry.severity.intValue());
+        }
+
+        boolean holds(long afterId, long toId, Level severity) {
+
+            return lastId > afterId && firstId <= toId
+                    && maxSeverity >= severity.intValue();
+        }
+
+        boolean holds(LogQuery query) {
+
+            return maxEpoch >= query.getFrom() && minEpoch < query.getUntil()
+                    && maxSeverity >= query.getSeverity().intValue();
+        }
+
+        void writeHeader(ByteBuffer header, byte[] iv) {
+
+            header.put(type)
+                    .putInt((int) (end - position - BLOCK_HEADER))
+                    .putLong(firstId)
+                    .putLong(lastId)
+                    .putLong(minEpoch)
+                    .putLong(maxEpoch)
+                    .putInt(maxSeverity)
+                    .put(iv);
+
+            CRC32 checksum = new CRC32();
+            checksum.update(header.array(), 0, BLOCK_HEADER - Integer.BYTES);
+            header.putInt((int) checksum.getValue());
+        }
+    }
+
+    /**
+     * Reads block headers through a window of the file, so a segment
+     * can be indexed without reading the blocks themselves
+     */
+    private static final class HeaderReader {
+
+        private final FileChannel channel;
+        private final long length;
+        private final ByteBuffer window = ByteBuffer.allocate(INDEX_INTERVAL);
+        private long start = 0;
+
+        HeaderReader(FileChannel channel, long length) {
+
+            this.channel = channel;
+            this.length = length;
+            window.limit(0);
+        }
+
+        Span read(long position) throws IOException {
+            // Returns the header at the position or null if there is not a whole one
+
+            if (position + BLOCK_HEADER > length) {
+                return null;
+            }
+
+            if (position < start || position + BLOCK_HEADER > start + window.limit()) {
+                window.clear();
+                window.limit((int) Math.min(window.capacity(), length - position));
+                readFully(channel, window, position);
+                start = position;
+            }
+
+            int offset = (int) (position - start);
+            CRC32 checksum = new CRC32();
+            checksum.update(window.array(), offset, BLOCK_HEADER - Integer.BYTES);
+
+            if ((int) checksum.getValue() != window.getInt(offset + BLOCK_HEADER - Integer.BYTES)) {
+                return null;
+            }
+
+            window.position(offset);
+            Span block = Span.read(window, position);
+            return block.end < position + BLOCK_HEADER ? null : block;
+        }
+    }
+
+
+    private void append(Segment segment, Span block, byte[] plain)
+            throws IOException, GeneralSecurityException {
+        // Encrypts and writes a block at the end of the segment, holding appendLock
+
+        byte[] iv = new byte[IV_BYTES];
+        RANDOM.nextBytes(iv);
+
+        block.end = block.position + BLOCK_HEADER + plain.length + TAG_BITS / 8;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (block.end - block.position));
+        block.writeHeader(buffer, iv);
+
+        // The header is authenticated along with the entries so its
+        // ids, times and severity cannot be altered unnoticed either
+        Cipher cipher = getCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, getKey(), new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(buffer.array(), 0, BLOCK_HEADER);
+        cipher.doFinal(plain, 0, plain.length, buffer.array(), BLOCK_HEADER);
+
+        buffer.clear();
+
+        try {
+            writeFully(segment.channel, buffer, block.position);
+
+        } catch (IOException e) {
+            // Cut off any part of the block written so the next follows the last whole one
+            segment.channel.truncate(segment.size);
+            throw e;
+        }
+
+        segment.add(block);
+    }
+
+    private void appendCursor(Segment segment, String sender, long lastId)
+            throws IOException, GeneralSecurityException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, sender);
+        out.writeLong(lastId);
+
+        Span block = new Span(segment.size);
+        block.type = CURSOR;
+        append(segment, block, bytes.toByteArray());
+    }
+
+    private void closeSegments() {
+
+        try {
+            if (live != null) {
+                live.channel.close();
+            }
+
+            synchronized (archives) {
+                for (Segment archive : archives.values()) {
+                    archive.channel.close();
+                }
+                archives.clear();
+            }
+
+        } catch (IOException e) {
+
+            System.err.println("SEVERE: Cannot close log journal "
+                    .concat(e.toString()));
+        }
+
+        live = null;
+    }
+
+    private byte[] decrypt(ByteBuffer blocks, int offset, Span block)
+            throws GeneralSecurityException {
+
+        byte[] bytes = blocks.array();
+        int length = (int) (block.end - block.position - BLOCK_HEADER);
+
+        Cipher cipher = getCipher();
+        cipher.init(Cipher.DECRYPT_MODE, getKey(), new GCMParameterSpec(
+                TAG_BITS, bytes, offset + IV_OFFSET, IV_BYTES));
+        cipher.updateAAD(bytes, offset, BLOCK_HEADER);
+        byte[] plain = cipher.doFinal(bytes, offset + BLOCK_HEADER, length);
+
+        return block.type == PACKED_ENTRIES ? LogUtility.inflate(plain) : plain;
+    }
+
+    private Segment getArchive(int segment) throws IOException, GeneralSecurityException {
+
+        synchronized (archives) {
+
+            Segment archive = archives.get(segment);
+
+            if (archive == null) {
+
+                Path file = LogUtility.getArchivePath(path, segment);
+                if (!Files.exists(file)) {
+                    return null;
+                }
+
+                archive = openSegment(file, false);
+                archives.put(segment, archive);
+            }
+
+            return archive;
+        }
+    }
+
+    private SecretKeySpec getKey() throws GeneralSecurityException {
+
+        SecretKeySpec current = key;
+
+        if (current == null) {
+            synchronized (this) {
+                if (key == null) {
+                    // Derived from the journal path as the database password is from its path,
+                    // then hashed down to the 256 bits AES takes
+                    char[] password = LogUtility.generatePassword(path.toString().toCharArray());
+                    byte[] digest = MessageDigest.getInstance("SHA-256")
+                            .digest(new String(password).getBytes(StandardCharsets.UTF_8));
+
+                    key = new SecretKeySpec(digest, "AES");
+
+                    // Overwrite variables for security
+                    Arrays.fill(password, '0');
+                    Arrays.fill(digest, (byte) 0);
+                }
+                current = key;
+            }
+        }
+
+        return current;
+    }
+
+    private Segment getLive() throws IOException, GeneralSecurityException {
+
+        Segment segment = live;
+
+        if (segment == null) {
+            synchronized (appendLock) {
+
+                if (live == null) {
+
+                    // Install JVM shutdown hook to cleanup on unexpected shutdown
+                    LogUtility.hookJvmShutdown();
+                    LogMetrics.register();
+
+                    if (path.getParent() != null) {
+                        Files.createDirectories(path.getParent());
+                    }
+
+                    try {
+                        live = openSegment(path, true);
+
+                    } catch (IOException e) {
+                        // There is a problem with the journal so delete and create a new one
+                        Files.deleteIfExists(path);
+                        live = openSegment(path, true);
+                    }
+                }
+
+                segment = live;
+            }
+        }
+
+        return segment;
+    }
+
+    private Segment getSegment(int segment) throws IOException, GeneralSecurityException {
+
+        // The live journal is opened first as it holds the sender cursors
+        Segment current = getLive();
+        return segment > 0 ? getArchive(segment) : current;
+    }
+
+    private List<Span> getSpans(Segment segment) {
+
+        // Copied as the last entry of the live index grows while it is read
+        synchronized (appendLock) {
+
+            List<Span> spans = new ArrayList<>(segment.index.size());
+            for (Span span : segment.index) {
+                spans.add(new Span(span));
+            }
+            return spans;
+        }
+    }
+
+    private Segment openSegment(Path file, boolean isLive)
+            throws IOException, GeneralSecurityException {
+        // Opens a journal file and builds its sparse index from the block headers
+
+        FileChannel channel = isLive
+                ? FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ);
+
+        Segment segment = new Segment(channel);
+
+        try {
+            long length = channel.size();
+
+            if (length == 0 && isLive) {
+
+                // New journal so continue ids on from the rolled one
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER)
+                        .putInt(MAGIC)
+                        .putLong(carriedLastId);
+                header.flip();
+                writeFully(channel, header, 0);
+
+                segment.lastId = carriedLastId;
+                segment.size = FILE_HEADER;
+                carriedLastId = 0;
+
+                // and keep the sender cursors with it
+                for (Map.Entry<String, Long> cursor : cursors.entrySet()) {
+                    appendCursor(segment, cursor.getKey(), cursor.getValue());
+                }
+
+                return segment;
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+            if (length >= FILE_HEADER) {
+                readFully(channel, header, 0);
+            }
+
+            if (length < FILE_HEADER || header.getInt(0) != MAGIC) {
+                throw new IOException("Not a log journal ".concat(file.toString()));
+            }
+
+            segment.lastId = header.getLong(Integer.BYTES);
+            segment.size = FILE_HEADER;
+
+            HeaderReader headers = new HeaderReader(channel, length);
+            long position = FILE_HEADER;
+
+            while (position < length) {
+
+                Span block = headers.read(position);
+
+                if (block == null) {
+
+                    // Damaged header so carry on from the next whole block after it
+                    long next = position + 1;
+                    while (next < length && ((block = headers.read(next)) == null
+                            || block.end > length)) {
+                        next++;
+                    }
+
+                    if (next >= length) {
+                        // Nothing after it so it was cut short by a crash
+                        break;
+                    }
+
+                    System.err.println("SEVERE: Skipped damaged log journal block in "
+                            .concat(file.toString()));
+                    position = next;
+                }
+
+                if (block.end > length) {
+                    // Block was cut short by a crash while it was written
+                    break;
+                }
+
+                if (isLive && block.type == CURSOR) {
+
+                    ByteBuffer bytes = ByteBuffer.allocate((int) (block.end - block.position));
+                    readFully(channel, bytes, block.position);
+
+                    try {
+                        DataInputStream cursor = new DataInputStream(
+                                new ByteArrayInputStream(decrypt(bytes, 0, block)));
+                        cursors.merge(readString(cursor), cursor.readLong(), Math::max);
+
+                    } catch (GeneralSecurityException e) {
+                        // A later copy of the cursor may still be read
+                        System.err.println("SEVERE: Cannot decrypt log journal cursor "
+                                .concat(e.toString()));
+                    }
+                }
+
+                segment.add(block);
+                position = block.end;
+            }
+
+            if (isLive && position < length) {
+                // Drop the part written block so appends follow the last whole one
+                channel.truncate(position);
+            }
+
+        } catch (IOException | GeneralSecurityException e) {
+            channel.close();
+            throw e;
+        }
+
+        return segment;
+    }
+
+    private List<LogEntry> readSpan(Segment segment, Span span, long afterId, long toId,
+                                    Level severity, LogQuery query)
+            throws IOException {
+        // Decrypts the blocks of an index entry that can hold entries in the id range
+        // at or above the severity, and in the time range of the query if there is one
+
+        ByteBuffer blocks = ByteBuffer.allocate((int) (span.end - span.position));
+        readFully(segment.channel, blocks, span.position);
+
+        List<LogEntry> entries = new ArrayList<>();
+        int offset = 0;
+
+        while (offset < blocks.capacity()) {
+
+            blocks.position(offset);
+            Span block = Span.read(blocks, span.position + offset);
+
+            if (block.type != CURSOR && block.holds(afterId, toId, severity)
+                    && (query == null || block.holds(query))) {
+
+                try {
+                    readEntries(block, decrypt(blocks, offset, block), afterId, toId,
+                            severity, entries);
+
+                } catch (GeneralSecurityException e) {
+                    // Keep reading the blocks that can still be read
+                    System.err.println("SEVERE: Cannot decrypt log journal block "
+                            .concat(e.toString()));
+                }
+            }
+
+            offset += (int) (block.end - block.position);
+        }
+
+        return entries;
+    }
+
+
+    private static byte[] encode(List<LogEntry> entries) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entries.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        // Ids are not written as they follow on from the first id in the header
+        for (LogEntry entry : entries) {
+
+            out.writeLong(entry.timestamp);
+            out.writeInt(entry.severity.intValue());
+            writeString(out, entry.severity.toString());
+            writeString(out, entry.callingClass);
+            writeString(out, entry.message);
+            out.writeInt(entry.repeats);
+            out.writeLong(entry.lastSeen);
+            writeString(out, entry.args != null ? LogUtility.packArgs(entry.args) : null);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static Cipher getCipher() throws GeneralSecurityException {
+
+        Cipher cipher = CIPHERS.get();
+
+        if (cipher == null) {
+            cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            CIPHERS.set(cipher);
+        }
+
+        return cipher;
+    }
+
+    private static void readEntries(Span block, byte[] plain, long afterId, long toId,
+                                    Level severity, List<LogEntry> entries)
+            throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+
+        for (long id = block.firstId; id <= block.lastId; id++) {
+
+            long epoch = in.readLong();
+            int sevValue = in.readInt();
+            String sevName = readString(in);
+            String callingClass = readString(in);
+            String message = readString(in);
+            int repeats = in.readInt();
+            long lastSeen = in.readLong();
+            String args = readString(in);
+
+            if (id <= afterId || id > toId || sevValue < severity.intValue()) {
+                continue;
+            }
+
+            // Placeholders left in the message are filled in now it is read
+            if (args != null) {
+                message = LogUtility.formatMessage(message, LogUtility.unpackArgs(args));
+            }
+
+            entries.add(new LogEntry(id, epoch, LogUtility.parseLevel(sevName, sevValue),
+                    callingClass, message, repeats, lastSeen));
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Log journal ended early");
+            }
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+
+        if (text == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private void roll() {
+
+        // Wait for any operations in progress to finish
+        lock.writeLock().lock();
+
+        try {
+            // Check again as another thread may have rolled it already
+            Segment segment = live;
+            if (segment == null || segment.size < LogWriter.maxLogSizeKb * 1024L) {
+                return;
+            }
+
+            carriedLastId = segment.lastId;
+
+            // Forced before closing as writers flush the new live journal only
+            if (LogWriter.durability == LogWriter.Durability.FSYNC) {
+                segment.channel.force(false);
+            }
+            closeSegments();
+
+            // Archive the journal as it exceeds max size
+            LogUtility.rollLog(path);
+            LogMetrics.rolled();
+
+            // Started straight away so the carried id and cursors are on disk
+            live = openSegment(path, true);
+
+        } catch (IOException | GeneralSecurityException e) {
+
+            System.err.println("SEVERE: Cannot roll over log journal "
+                    .concat(e.toString()));
+
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    @Override
+    void closeDatabase() {
+
+        // Wait for any operations in progress to finish
+        lock.writeLock().lock();
+        try {
+            closeSegments();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    void flush(boolean toDisk) {
+
+        // Blocks are written to the file as they are appended, so only
+        // forcing them to disk is left to do
+        if (!toDisk) {
+            return;
+        }
+
+        lock.readLock().lock();
+
+        try {
+            Segment segment = live;
+            if (segment != null) {
+                segment.channel.force(false);
+            }
+
+        } catch (IOException e) {
+
+            System.err.println("SEVERE: Cannot flush log journal "
+                    .concat(e.toString()));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    long getSize() throws IOException {
+
+        return Files.exists(path) ? Files.size(path) : 0;
+    }
+
+    @Override
+    void insertLog(LogEntry entry) {
+
+        insertLogs(Collections.singletonList(entry));
+    }
+
+    @Override
+    void insertLogs(List<LogEntry> entries) {
+
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        boolean isFull = false;
+        lock.readLock().lock();
+
+        try {
+            Segment segment = getLive();
+            long start = System.nanoTime();
+
+            // Encoded and compressed before taking the lock as ids are not part of it
+            byte[] plain = encode(entries);
+            boolean isPacked = LogWriter.compressThreshold > 0
+                    && plain.length >= LogWriter.compressThreshold;
+            if (isPacked) {
+                plain = LogUtility.deflate(plain);
+            }
+
+            synchronized (appendLock) {
+
+                // The whole batch goes in one block so is written or lost together
+                Span block = new Span(segment.size);
+                block.type = isPacked ? PACKED_ENTRIES : ENTRIES;
+                block.firstId = segment.lastId + 1;
+                block.lastId = segment.lastId + entries.size();
+
+                for (LogEntry entry : entries) {
+                    block.add(entry);
+                }
+
+                append(segment, block, plain);
+            }
+
+            LogMetrics.inserted(System.nanoTime() - start);
+
+            // Let the sender know about any entries it wants
+            for (LogEntry entry : entries) {
+                LogMetrics.entryWritten(entry.severity);
+                LogWatcher.entriesWritten(entry.severity, 1);
+            }
+
+            isFull = segment.size >= LogWriter.maxLogSizeKb * 1024L;
+
+        } catch (IOException | GeneralSecurityException e) {
+            // The entries weren't written
+            System.err.println("SEVERE: Cannot write to log journal "
+                    .concat(e.toString()));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        if (isFull) {
+            roll();
+        }
+    }
+
+    @Override
+    void markAsSent(String sender, long lastId) {
+
+        lock.readLock().lock();
+
+        try {
+            Segment segment = getLive();
+
+            synchronized (appendLock) {
+
+                // Cursor only ever moves forward
+                if (lastId > cursors.getOrDefault(sender, 0L)) {
+                    appendCursor(segment, sender, lastId);
+                    cursors.put(sender, lastId);
+                }
+            }
+
+        } catch (IOException | GeneralSecurityException e) {
+
+            System.err.println("SEVERE: Cannot update log journal "
+                    .concat(e.toString()));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    void open() {
+
+        lock.readLock().lock();
+
+        try {
+            getLive();
+
+        } catch (IOException | GeneralSecurityException e) {
+
+            System.err.println("SEVERE: Cannot open log journal "
+                    .concat(e.toString()));
+
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    List<LogEntry> getLogPage(int segment, String sender, Level severity,
+                              boolean isSent, long afterId, int limit) {
+
+        List<LogEntry> entries = new ArrayList<>(limit);
+        lock.readLock().lock();
+
+        try {
+            Segment journal = getSegment(segment);
+            if (journal == null) {
+                return entries;
+            }
+
+            // Sent entries are those at or before the sender's cursor, which
+            // is kept for every segment as ids increase across them
+            long lastSent = cursors.getOrDefault(sender, 0L);
+            long fromId = isSent ? afterId : Math.max(afterId, lastSent);
+            long toId = isSent ? lastSent : Long.MAX_VALUE;
+
+            // Blocks are in id order so the page is the first entries found
+            for (Span span : getSpans(journal)) {
+
+                if (entries.size() >= limit) {
+                    break;
+                }
+
+                if (span.holds(fromId, toId, severity)) {
+                    entries.addAll(readSpan(journal, span, fromId, toId, severity, null));
+                }
+            }
+
+        } catch (IOException | GeneralSecurityException e) {
+
+            System.err.println("SEVERE: Cannot read log journal "
+                    .concat(e.toString()));
+            return new ArrayList<>();
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return entries.size() > limit
+                ? new ArrayList<>(entries.subList(0, limit))
+                : entries;
+    }
+
+    @Override
+    List<LogEntry> query(LogQuery query, int segment) {
+
+        List<LogEntry> entries = new ArrayList<>();
+        lock.readLock().lock();
+
+        try {
+            Segment journal = getSegment(segment);
+            if (journal == null) {
+                return entries;
+            }
+
+            List<Span> spans = getSpans(journal);
+            if (query.isNewestFirst()) {
+                Collections.reverse(spans);
+            }
+
+            for (Span span : spans) {
+
+                if (!span.holds(query)) {
+                    continue;
+                }
+
+                if (entries.size() >= query.getLimit()) {
+
+                    // Keep only the page found so far and skip entries of the index
+                    // that cannot hold anything to go before the last entry of it
+                    entries.sort(query.order());
+                    entries.subList(query.getLimit(), entries.size()).clear();
+
+                    long last = entries.get(entries.size() - 1).timestamp;
+                    if (query.isNewestFirst() ? span.maxEpoch < last : span.minEpoch > last) {
+                        continue;
+                    }
+                }
+
+                // Every filter is applied here as blocks only know their times and severities
+                for (LogEntry entry : readSpan(journal, span, 0, Long.MAX_VALUE,
+                        query.getSeverity(), query)) {
+                    if (query.accepts(entry)) {
+                        entries.add(entry);
+                    }
+                }
+            }
+
+        } catch (IOException | GeneralSecurityException e) {
+
+            System.err.println("SEVERE: Cannot query log journal "
+                    .concat(e.toString()));
+            return new ArrayList<>();
+
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        entries.sort(query.order());
+        return entries.size() > query.getLimit()
+                ? new ArrayList<>(entries.subList(0, query.getLimit()))
+                : entries;
+    }
+}
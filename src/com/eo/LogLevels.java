@@ -0,0 +1,93 @@
+package com.eo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+
+/**
+ * Minimum severity levels set per package or class. The level for a class
+ * comes from its most specific configured package and is cached per class
+ */
+class LogLevels {
+
+    // Marks a class with no configured level of its own so it follows LogWriter.minLevel
+    private static final Level INHERIT = new Level("INHERIT", Integer.MIN_VALUE) {};
+
+    private static final Map<String, Level> CONFIGURED = new ConcurrentHashMap<>();
+    // Replaced rather than cleared so a lookup racing a change cannot cache a stale level
+    private static volatile Map<String, Level> effective = new ConcurrentHashMap<>();
+
+    // Lowest configured level, entries below it and minLevel can never be kept
+    private static volatile int floor = Integer.MAX_VALUE;
+    private static volatile boolean isConfigured = false;
+
+
+    private static Level resolve(String className) {
+
+        // Try the class then each enclosing class and package in turn
+        String name = className;
+
+        while (true) {
+
+            Level level = CONFIGURED.get(name);
+            if (level != null) {
+                return level;
+            }
+
+            int end = Math.max(name.lastIndexOf('.'), name.lastIndexOf('$'));
+            if (end < 0) {
+                return INHERIT;
+            }
+            name = name.substring(0, end);
+        }
+    }
+
+    private static void update() {
+
+        // Levels are resolved again as they are next used
+        effective = new ConcurrentHashMap<>();
+
+        int lowest = Integer.MAX_VALUE;
+        for (Level level : CONFIGURED.values()) {
+            lowest = Math.min(lowest, level.intValue());
+        }
+        floor = lowest;
+        isConfigured = !CONFIGURED.isEmpty();
+    }
+
+
+    static synchronized void clear() {
+
+        CONFIGURED.clear();
+        update();
+    }
+
+    static boolean isEnabled(String className, Level level) {
+
+        // Nothing configured so only the global level applies
+        if (!isConfigured) {
+            return level.intValue() >= LogWriter.minLevel.intValue();
+        }
+
+        Level classLevel = effective.computeIfAbsent(className, LogLevels::resolve);
+
+        if (classLevel == INHERIT) {
+            classLevel = LogWriter.minLevel;
+        }
+
+        return level.intValue() >= classLevel.intValue();
+    }
+
+    static int lowest() { return floor; }
+
+    static synchronized void set(String name, Level level) {
+
+        if (level == null) {
+            CONFIGURED.remove(name);
+        } else {
+            CONFIGURED.put(name, level);
+        }
+
+        update();
+    }
+}
@@ -0,0 +1,168 @@
+package com.eo;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Rate limits entries per calling class and / or severity and samples
+ * low severity entries. Entries left out are counted and written as a
+ * periodic summary entry
+ */
+class LogLimiter {
+
+    // Past this many distinct keys entries from new keys are not limited
+    private static final int MAX_BUCKETS = 10000;
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private static final Map<String, Bucket> BUCKETS = new ConcurrentHashMap<>();
+    // Entries left out by sampling since the last summary
+    private static final LongAdder SAMPLED = new LongAdder();
+    private static boolean isScheduled = false;
+
+
+    /**
+     * Token bucket kept as the time it next becomes empty, so taking a
+     * token is a single compare and set and never blocks other callers
+     */
+    private static final class Bucket {
+
+        private final AtomicLong emptyAt = new AtomicLong(Long.MIN_VALUE);
+        private final LongAdder suppressed = new LongAdder();
+
+        boolean tryTake(long now, long interval, long burst) {
+
+            while (true) {
+
+                long current = emptyAt.get();
+                // An idle bucket refills to at most burst tokens
+                long from = Math.max(current, now);
+
+                if (from - now > burst) {
+                    suppressed.increment();
+                    return false;
+                }
+
+                if (emptyAt.compareAndSet(current, from + interval)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+
+    private static String keyOf(String cClassName, Level level) {
+
+        switch (LogWriter.rateLimitBy) {
+
+            case SEVERITY:
+                return level.getName();
+
+            case CLASS_AND_SEVERITY:
+                return cClassName + ' ' + level.getName();
+
+            default:
+                return cClassName;
+        }
+    }
+
+    private static synchronized void startTimer() {
+
+        if (!isScheduled) {
+
+            // The summary is written to the store so runs on a worker
+            LogScheduler.scheduleBlocking(LogLimiter::writeSummary,
+                    Math.max(1000, LogWriter.summaryIntervalMs));
+
+            isScheduled = true;
+        }
+    }
+
+    private static void writeSummary() {
+        // Counts are reset as they are read so each summary covers one interval
+
+        StringBuilder summary = new StringBuilder();
+        long total = 0;
+
+        for (Map.Entry<String, Bucket> bucket : BUCKETS.entrySet()) {
+
+            long suppressed = bucket.getValue().suppressed.sumThenReset();
+            if (suppressed > 0) {
+                summary.append(System.lineSeparator())
+                        .append(bucket.getKey())
+                        .append(": ")
+                        .append(suppressed);
+                total += suppressed;
+            }
+        }
+
+        long sampled = SAMPLED.sumThenReset();
+        if (sampled > 0) {
+            summary.append(System.lineSeparator())
+                    .append("Sampled out: ")
+                    .append(sampled);
+            total += sampled;
+        }
+
+        if (total > 0) {
+            // Written straight to storage so the summary itself is never limited
+            LogWriter.store(new LogEntry(System.currentTimeMillis(), Level.WARNING,
+                    LogLimiter.class.getName(),
+                    total + " entries suppressed by rate limiting or sampling" + summary));
+        }
+    }
+
+
+    static boolean isAllowed(String cClassName, Level level) {
+
+        double sampleRate = LogWriter.sampleRate;
+
+        // Sampling only ever applies to INFO and below
+        if (sampleRate < 1 && level.intValue() <= Level.INFO.intValue()
+                && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+
+            if (!isScheduled) {
+                startTimer();
+            }
+            SAMPLED.increment();
+            return false;
+        }
+
+        double rateLimit = LogWriter.rateLimit;
+        if (rateLimit <= 0) {
+            return true;
+        }
+
+        if (!isScheduled) {
+            startTimer();
+        }
+
+        String key = keyOf(cClassName, level);
+        Bucket bucket = BUCKETS.get(key);
+
+        if (bucket == null) {
+
+            // Too many distinct keys so don't track any more
+            if (BUCKETS.size() >= MAX_BUCKETS) {
+                return true;
+            }
+            bucket = BUCKETS.computeIfAbsent(key, k -> new Bucket());
+        }
+
+        long interval = (long) (NANOS_PER_SECOND / rateLimit);
+        long burst = interval * (Math.max(1, LogWriter.rateBurst) - 1);
+
+        return bucket.tryTake(System.nanoTime(), interval, burst);
+    }
+
+    static void flush() {
+        // Writes a summary of anything suppressed since the last one
+
+        if (isScheduled) {
+            writeSummary();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.eo;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what the logging pipeline does and how long it takes. Every
+ * counter is a LongAdder so recording never makes writers wait on each other
+ */
+public class LogMetrics implements LogMetricsMXBean {
+
+    /**
+     * Read through JMX as com.eo:type=LogMetrics or with LogMetrics.snapshot()
+     *
+     * <p>
+     * <b>Metrics</b>
+     * <ul>
+     * <li><b>entries.SEVERITY</b> - Entries written to the log database by severity
+     * <li><b>insert.count</b> - Inserts, a batch of entries counts as one
+     * <li><b>insert.micros</b> - Total time spent inserting
+     * <li><b>insert.le.Nus</b> - Inserts that took at most N microseconds
+     * <li><b>database.bytes</b> - Size of the live log database file
+     * <li><b>database.rotations</b> - Times the live log has been archived
+     * <li><b>watcher.wakeups</b> - Times the watcher woke to read unsent entries
+     * <li><b>send.cycles</b> - Times emails were sent or attempted
+     * <li><b>emails.sent</b> / <b>emails.failed</b> - Emails sent and emails that could not be sent
+     * <li><b>bytes.sent</b> - Characters of log text emailed, before any compression
+     * <li><b>smtp.micros</b> - Total time spent sending over SMTP
+     * <li><b>smtp.le.Nus</b> - SMTP sends that took at most N microseconds
+     * <li><b>buffer.depth</b> - Entries waiting to be emailed
+     * <li><b>queue.depth</b> - Entries waiting in the async queue to be written
+     * </p></ul>
+     */
+
+    private static final String OBJECT_NAME = "com.eo:type=LogMetrics";
+
+    // Upper bounds in microseconds of the latency buckets, slower goes in a last bucket
+    private static final long[] BUCKETS_MICROS = {
+            10, 50, 100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000 };
+
+    private static final Map<String, LongAdder> ENTRIES = new ConcurrentHashMap<>();
+    private static final Histogram INSERT_LATENCY = new Histogram();
+    private static final LongAdder ROTATIONS = new LongAdder();
+    private static final LongAdder WATCHER_WAKEUPS = new LongAdder();
+    private static final LongAdder SEND_CYCLES = new LongAdder();
+    private static final LongAdder EMAILS_SENT = new LongAdder();
+    private static final LongAdder EMAILS_FAILED = new LongAdder();
+    private static final LongAdder BYTES_SENT = new LongAdder();
+    private static final Histogram SMTP_LATENCY = new Histogram();
+
+    private static boolean isRegistered = false;
+
+
+    /**
+     * Counts of how many timings fell into each bucket along with their total
+     */
+    private static final class Histogram {
+
+        private final LongAdder[] counts = new LongAdder[BUCKETS_MICROS.length + 1];
+        private final LongAdder totalMicros = new LongAdder();
+
+        Histogram() {
+
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+
+            int bucket = 0;
+            while (bucket < BUCKETS_MICROS.length && micros > BUCKETS_MICROS[bucket]) {
+                bucket++;
+            }
+
+            counts[bucket].increment();
+            totalMicros.add(micros);
+        }
+
+        long count() {
+
+            long count = 0;
+            for (LongAdder bucket : counts) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        long[] counts() {
+
+            long[] sums = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                sums[i] = counts[i].sum();
+            }
+            return sums;
+        }
+
+        void addTo(Map<String, Long> snapshot, String name) {
+
+            long[] sums = counts();
+            for (int i = 0; i < BUCKETS_MICROS.length; i++) {
+                snapshot.put(name + ".le." + BUCKETS_MICROS[i] + "us", sums[i]);
+            }
+            snapshot.put(name + ".gt." + BUCKETS_MICROS[BUCKETS_MICROS.length - 1] + "us",
+                    sums[BUCKETS_MICROS.length]);
+        }
+    }
+
+
+    static void emailFailed(long nanos) {
+
+        EMAILS_FAILED.increment();
+        SMTP_LATENCY.record(nanos);
+    }
+
+    static void emailSent(int length, long nanos) {
+
+        EMAILS_SENT.increment();
+        BYTES_SENT.add(length);
+        SMTP_LATENCY.record(nanos);
+    }
+
+    static void entryWritten(Level severity) {
+
+        // Looked up first so the common case does not allocate
+        LongAdder count = ENTRIES.get(severity.getName());
+        if (count == null) {
+            count = ENTRIES.computeIfAbsent(severity.getName(), name -> new LongAdder());
+        }
+        count.increment();
+    }
+
+    static void inserted(long nanos) { INSERT_LATENCY.record(nanos); }
+
+    static synchronized void register() {
+
+        if (isRegistered) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer()
+                    .registerMBean(new LogMetrics(), new ObjectName(OBJECT_NAME));
+
+        } catch (InstanceAlreadyExistsException e) {
+            // Registered by another copy of the library, its metrics are still readable
+
+        } catch (JMException | SecurityException e) {
+            // Metrics are still available from snapshot
+            System.err.println("WARNING: Cannot register metrics MBean "
+                    .concat(e.toString()));
+        }
+
+        isRegistered = true;
+    }
+
+    static void rolled() { ROTATIONS.increment(); }
+
+    static void sendCycle() { SEND_CYCLES.increment(); }
+
+    static void watcherWoken() { WATCHER_WAKEUPS.increment(); }
+
+
+    /**
+     * Read every metric at once
+     *
+     * @return Metric values by name, in the order listed above
+     */
+    public static Map<String, Long> snapshot() {
+
+        Map<String, Long> snapshot = new LinkedHashMap<>();
+        LogMetrics metrics = new LogMetrics();
+
+        for (Map.Entry<String, Long> entries : metrics.getEntriesWritten().entrySet()) {
+            snapshot.put("entries." + entries.getKey(), entries.getValue());
+        }
+
+        snapshot.put("insert.count", INSERT_LATENCY.count());
+        snapshot.put("insert.micros", INSERT_LATENCY.totalMicros.sum());
+        INSERT_LATENCY.addTo(snapshot, "insert");
+
+        snapshot.put("database.bytes", metrics.getDatabaseSizeBytes());
+        snapshot.put("database.rotations", ROTATIONS.sum());
+        snapshot.put("watcher.wakeups", WATCHER_WAKEUPS.sum());
+        snapshot.put("send.cycles", SEND_CYCLES.sum());
+        snapshot.put("emails.sent", EMAILS_SENT.sum());
+        snapshot.put("emails.failed", EMAILS_FAILED.sum());
+        snapshot.put("bytes.sent", BYTES_SENT.sum());
+
+        snapshot.put("smtp.micros", SMTP_LATENCY.totalMicros.sum());
+        SMTP_LATENCY.addTo(snapshot, "smtp");
+
+        snapshot.put("buffer.depth", (long) metrics.getBufferDepth());
+        snapshot.put("queue.depth", (long) metrics.getQueueDepth());
+
+        return snapshot;
+    }
+
+
+    @Override
+    public int getBufferDepth() { return LogSender.getBufferDepth(); }
+
+    @Override
+    public long getBytesSent() { return BYTES_SENT.sum(); }
+
+    @Override
+    public long getDatabaseSizeBytes() {
+
+        try {
+            return LogStore.getDefault().getSize();
+
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public long getEmailsFailed() { return EMAILS_FAILED.sum(); }
+
+    @Override
+    public long getEmailsSent() { return EMAILS_SENT.sum(); }
+
+    @Override
+    public Map<String, Long> getEntriesWritten() {
+
+        // Sorted by name so the order is stable between reads
+        Map<String, Long> entries = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> count : ENTRIES.entrySet()) {
+            entries.put(count.getKey(), count.getValue().sum());
+        }
+        return entries;
+    }
+
+    @Override
+    public long[] getInsertLatencyHistogram() { return INSERT_LATENCY.counts(); }
+
+    @Override
+    public long getInsertTimeMicros() { return INSERT_LATENCY.totalMicros.sum(); }
+
+    @Override
+    public long getInserts() { return INSERT_LATENCY.count(); }
+
+    @Override
+    public long[] getLatencyBucketsMicros() { return BUCKETS_MICROS.clone(); }
+
+    @Override
+    public int getQueueDepth() { return LogQueue.size(); }
+
+    @Override
+    public long getRotations() { return ROTATIONS.sum(); }
+
+    @Override
+    public long getSendCycles() { return SEND_CYCLES.sum(); }
+
+    @Override
+    public long[] getSmtpLatencyHistogram() { return SMTP_LATENCY.counts(); }
+
+    @Override
+    public long getSmtpTimeMicros() { return SMTP_LATENCY.totalMicros.sum(); }
+
+    @Override
+    public long getWatcherWakeups() { return WATCHER_WAKEUPS.sum(); }
+}
@@ -0,0 +1,91 @@
+package com.eo;
+
+import java.util.Map;
+
+/**
+ * Management interface of LogMetrics, registered with the platform MBean
+ * server as com.eo:type=LogMetrics when the log database is first opened
+ */
+public interface LogMetricsMXBean {
+
+    /**
+     * @return Number of entries waiting to be emailed
+     */
+    int getBufferDepth();
+
+    /**
+     * @return Number of characters of log text emailed, before any compression
+     */
+    long getBytesSent();
+
+    /**
+     * @return Size of the live log database file in bytes
+     */
+    long getDatabaseSizeBytes();
+
+    /**
+     * @return Number of emails that could not be sent
+     */
+    long getEmailsFailed();
+
+    /**
+     * @return Number of emails sent
+     */
+    long getEmailsSent();
+
+    /**
+     * @return Number of entries written to the log database by severity name
+     */
+    Map<String, Long> getEntriesWritten();
+
+    /**
+     * @return Number of inserts that fell into each latency bucket
+     */
+    long[] getInsertLatencyHistogram();
+
+    /**
+     * @return Total time spent inserting in microseconds
+     */
+    long getInsertTimeMicros();
+
+    /**
+     * @return Number of inserts, a batch of entries counts as one
+     */
+    long getInserts();
+
+    /**
+     * @return Upper bounds in microseconds of the latency histogram buckets,
+     * the last bucket holds everything slower
+     */
+    long[] getLatencyBucketsMicros();
+
+    /**
+     * @return Number of entries waiting in the async queue to be written
+     */
+    int getQueueDepth();
+
+    /**
+     * @return Number of times the live log has been archived
+     */
+    long getRotations();
+
+    /**
+     * @return Number of times emails were sent or attempted
+     */
+    long getSendCycles();
+
+    /**
+     * @return Number of SMTP sends that fell into each latency bucket
+     */
+    long[] getSmtpLatencyHistogram();
+
+    /**
+     * @return Total time spent sending emails over SMTP in microseconds
+     */
+    long getSmtpTimeMicros();
+
+    /**
+     * @return Number of times the watcher woke to read unsent entries
+     */
+    long getWatcherWakeups();
+}
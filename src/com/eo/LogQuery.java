@@ -0,0 +1,434 @@
+package com.eo;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+public class LogQuery {
+
+    /**
+     * Finds log entries by time, severity and calling class, one page at a
+     * time. Built with LogReader.query() or Logalicious.query()
+     *
+     * <p>
+     * <b>Filters</b>
+     * <ul>
+     * <li><b>from</b> / <b>until</b> - Entries logged at or after / before these times
+     * in milliseconds since the epoch - <b>Default:</b> Any time
+     * <li><b>severity</b> - The minimum severity level of entries - <b>Default:</b> ALL
+     * <li><b>classPrefix</b> - Package or class name the calling class starts with - <b>Default:</b> Any class
+     * <li><b>matching</b> - Words every message contains, a word ending in * matches any
+     * word starting with it - <b>Default:</b> Any message
+     * <li><b>limit</b> - Most entries returned at once - <b>Default:</b> 100
+     * <li><b>newestFirst</b> - Return the most recent entries first - <b>Default:</b> Oldest first
+     * <li><b>archived</b> - Include archived segments - <b>Default:</b> Live log only
+     * </p></ul>
+     *
+     * <p>
+     * Pass the last entry of a page to after() to get the next page. Pages are
+     * ordered by time, id and shard as ids repeat across the shards of a log
+     * </p>
+     */
+
+    private final LogStore[] stores;
+
+    private long from = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+    private Level severity = Level.ALL;
+    private String classPrefix;
+    // Words to search for, those ending in % are prefixes
+    private List<String> terms;
+    private int limit = 100;
+    private boolean isAfter = false;
+    private long afterTimestamp;
+    private long afterId;
+    private int afterShard;
+    // Shard of the store being queried, as its place in the page decides which ids follow
+    private int shard = 0;
+    private boolean isNewestFirst = false;
+    private boolean isArchived = false;
+
+
+    LogQuery(LogStore... stores) {
+        this.stores = stores;
+    }
+
+
+    private static String escapeLike(String text) {
+
+        // Match the prefix literally rather than as a pattern
+        return text.replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+    }
+
+
+    boolean accepts(LogEntry entry) {
+        // Applies every filter to an entry read by a store that cannot apply them itself
+
+        if (!accepts(entry.id, entry.timestamp)
+                || entry.severity.intValue() < severity.intValue()) {
+            return false;
+        }
+
+        if (classPrefix != null
+                && (entry.callingClass == null || !entry.callingClass.startsWith(classPrefix))) {
+            return false;
+        }
+
+        if (terms == null) {
+            return true;
+        }
+
+        Set<String> words = new HashSet<>();
+        LogUtility.addTerms(entry.message, words);
+
+        for (String term : terms) {
+
+            if (!term.endsWith("%")) {
+                if (!words.contains(term)) {
+                    return false;
+                }
+                continue;
+            }
+
+            String prefix = term.substring(0, term.length() - 1);
+            if (words.stream().noneMatch(word -> word.startsWith(prefix))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    boolean accepts(long id, long epoch) {
+        // Applies the time range and page to an entry found by searching
+
+        if (epoch < from || epoch >= until) {
+            return false;
+        }
+
+        if (isAfter) {
+            long pageId = getPageId();
+            return isNewestFirst
+                    ? epoch < afterTimestamp || (epoch == afterTimestamp && id < pageId)
+                    : epoch > afterTimestamp || (epoch == afterTimestamp && id > pageId);
+        }
+
+        return true;
+    }
+
+    private long getPageId() {
+        // Id entries of the shard being queried must be past to follow the page. Shards
+        // ordered after the page's one also include its id, those before it exclude it
+
+        if (isNewestFirst) {
+            return shard < afterShard ? afterId + 1 : afterId;
+        }
+
+        return shard > afterShard ? afterId - 1 : afterId;
+    }
+
+    long getFrom() { return from; }
+
+    int getLimit() { return limit; }
+
+    Level getSeverity() { return severity; }
+
+    List<String> getTerms() { return terms; }
+
+    long getUntil() { return until; }
+
+    boolean isNewestFirst() { return isNewestFirst; }
+
+    boolean isSearch() { return terms != null; }
+
+    boolean isSeverityFiltered() { return severity.intValue() > Level.ALL.intValue(); }
+
+    Comparator<LogEntry> order() {
+
+        Comparator<LogEntry> oldestFirst = Comparator
+                .comparingLong((LogEntry entry) -> entry.timestamp)
+                .thenComparingLong(entry -> entry.id)
+                .thenComparingInt(entry -> entry.shard);
+
+        return isNewestFirst ? oldestFirst.reversed() : oldestFirst;
+    }
+
+    void setParameters(PreparedStatement statement) throws SQLException {
+        // Parameters are set in the same order as toSql adds their filters
+
+        int index = 1;
+        statement.setInt(index++, severity.intValue());
+
+        if (from != Long.MIN_VALUE) {
+            statement.setLong(index++, from);
+        }
+
+        if (until != Long.MAX_VALUE) {
+            statement.setLong(index++, until);
+        }
+
+        if (classPrefix != null) {
+            statement.setString(index++, escapeLike(classPrefix) + "%");
+        }
+
+        if (isAfter) {
+            statement.setLong(index++, afterTimestamp);
+            statement.setLong(index++, afterTimestamp);
+            statement.setLong(index++, getPageId());
+        }
+
+        statement.setInt(index, limit);
+    }
+
+    void setSearchParameters(PreparedStatement statement) throws SQLException {
+
+        statement.setInt(1, severity.intValue());
+
+        if (classPrefix != null) {
+            statement.setString(2, escapeLike(classPrefix) + "%");
+        }
+    }
+
+    String toSearchSql(long[] ids, int start, int end) {
+
+        // The time range and page are already applied to the ids
+        StringBuilder sql = new StringBuilder(LogDBStrings.SELECT_COLUMNS)
+                .append(LogDBStrings.FILTER_SEVERITY);
+
+        if (classPrefix != null) {
+            sql.append(LogDBStrings.FILTER_CLASS);
+        }
+
+        sql.append(LogDBStrings.FILTER_IDS);
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                sql.append(',');
+            }
+            sql.append(ids[i]);
+        }
+
+        return sql.append(");").toString();
+    }
+
+    String toSql(boolean isSparse) {
+
+        StringBuilder sql = new StringBuilder(LogDBStrings.SELECT_COLUMNS);
+
+        // Few enough matching severities are found through their index and sorted,
+        // otherwise the time index is read in order until the limit is reached
+        if (isSparse) {
+            sql.append(LogDBStrings.USE_SEVERITY_INDEX);
+        } else {
+            sql.append(isNewestFirst ? LogDBStrings.USE_RECENT_INDEX : LogDBStrings.USE_TIME_INDEX);
+        }
+
+        // Only the filters in use are added so the indexes can be used
+        sql.append(LogDBStrings.FILTER_SEVERITY);
+
+        if (from != Long.MIN_VALUE) {
+            sql.append(LogDBStrings.FILTER_FROM);
+        }
+
+        if (until != Long.MAX_VALUE) {
+            sql.append(LogDBStrings.FILTER_UNTIL);
+        }
+
+        if (classPrefix != null) {
+            sql.append(LogDBStrings.FILTER_CLASS);
+        }
+
+        if (isAfter) {
+            sql.append(isNewestFirst ? LogDBStrings.FILTER_BEFORE : LogDBStrings.FILTER_AFTER);
+        }
+
+        return sql.append(isNewestFirst ? LogDBStrings.ORDER_NEWEST : LogDBStrings.ORDER_OLDEST)
+                .toString();
+    }
+
+
+    /**
+     * @param entry The last entry of the previous page
+     * @return This query, starting after the entry
+     */
+    public LogQuery after(LogEntry entry) { return after(entry.timestamp, entry.id, entry.shard); }
+
+    /**
+     * @param timestamp Time of the last entry of the previous page
+     * @param id Id of the last entry of the previous page
+     * @return This query, starting after the entry
+     */
+    public LogQuery after(long timestamp, long id) { return after(timestamp, id, 0); }
+
+    /**
+     * @param timestamp Time of the last entry of the previous page
+     * @param id Id of the last entry of the previous page
+     * @param shard Shard of the last entry of the previous page
+     * @return This query, starting after the entry
+     */
+    public LogQuery after(long timestamp, long id, int shard) {
+
+        isAfter = true;
+        afterTimestamp = timestamp;
+        afterId = id;
+        afterShard = shard;
+        return this;
+    }
+
+    /**
+     * @return This query, also searching archived segments
+     */
+    public LogQuery archived() {
+
+        isArchived = true;
+        return this;
+    }
+
+    /**
+     * @param classPrefix Package or class name the calling class starts with
+     * @return This query
+     */
+    public LogQuery classPrefix(String classPrefix) {
+
+        this.classPrefix = classPrefix;
+        return this;
+    }
+
+    /**
+     * @param epochMs Earliest time of entries in milliseconds since the epoch
+     * @return This query
+     */
+    public LogQuery from(long epochMs) {
+
+        from = epochMs;
+        return this;
+    }
+
+    /**
+     * @param limit Most entries returned at once
+     * @return This query
+     */
+    public LogQuery limit(int limit) {
+
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be at least 1");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Only find entries whose message contains every word of the text, in any
+     * order and case. Words are runs of letters and digits
+     *
+     * @param text Words to search for, e.g. "timeout db*"
+     * @return This query
+     */
+    public LogQuery matching(String text) {
+
+        Set<String> found = new LinkedHashSet<>();
+
+        for (String word : text.trim().split("\\s+")) {
+
+            Set<String> wordTerms = new LinkedHashSet<>();
+            LogUtility.addTerms(word, wordTerms);
+
+            // A trailing * makes the last part of the word a prefix
+            if (word.endsWith("*") && !wordTerms.isEmpty()) {
+                List<String> parts = new ArrayList<>(wordTerms);
+                String last = parts.remove(parts.size() - 1);
+                found.addAll(parts);
+                found.add(last + "%");
+            } else {
+                found.addAll(wordTerms);
+            }
+        }
+
+        terms = new ArrayList<>(found);
+        return this;
+    }
+
+    /**
+     * @return This query, returning the most recent entries first
+     */
+    public LogQuery newestFirst() {
+
+        isNewestFirst = true;
+        return this;
+    }
+
+    /**
+     * @param severity The minimum severity level of entries
+     * @return This query
+     */
+    public LogQuery severity(Level severity) {
+
+        this.severity = severity;
+        return this;
+    }
+
+    /**
+     * @param epochMs Time entries were logged before in milliseconds since the epoch
+     * @return This query
+     */
+    public LogQuery until(long epochMs) {
+
+        until = epochMs;
+        return this;
+    }
+
+    /**
+     * Run the query
+     *
+     * @return Up to limit matching entries in the order asked for
+     */
+    public List<LogEntry> list() {
+
+        List<LogEntry> entries = new ArrayList<>();
+
+        // Nothing can match a search without any words to look up
+        if (terms != null && terms.isEmpty()) {
+            return entries;
+        }
+
+        int segments = isArchived ? LogWriter.maxLogSegments : 0;
+
+        for (shard = 0; shard < stores.length; shard++) {
+
+            LogStore store = stores[shard];
+
+            // Entries held while the store opens are written before they are read
+            store.awaitOpen();
+            List<LogEntry> found = new ArrayList<>();
+
+            // Segments were written one after another so stop once enough are found
+            for (int i = 0; i <= segments && found.size() < limit; i++) {
+
+                // Newest first reads the live log first, oldest first the oldest archive
+                int segment = isNewestFirst ? i : segments - i;
+                found.addAll(store.query(this, segment));
+            }
+
+            for (LogEntry entry : found) {
+                entry.shard = shard;
+            }
+            entries.addAll(found);
+        }
+
+        if (entries.size() > limit || stores.length > 1 || segments > 0) {
+            // Results of several databases or segments are put back in order
+            entries.sort(order());
+        }
+
+        return entries.size() > limit
+                ? new ArrayList<>(entries.subList(0, limit))
+                : entries;
+    }
+}
@@ -0,0 +1,206 @@
+package com.eo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue used when LogWriter is in async mode. Entries are drained
+ * by a background flusher thread and written to the log database in batches
+ */
+class LogQueue {
+
+    // How long the flusher waits for new entries when the queue is idle
+    private static final long IDLE_POLL_MS = 250;
+    // How long to wait for the flusher to finish its current batch on shutdown
+    private static final long SHUTDOWN_WAIT_MS = 5000;
+
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private static volatile BlockingQueue<LogEntry> queue;
+    private static Thread flusher;
+    private static volatile boolean isRunning = false;
+    // Set by flush on shutdown so later entries are written directly
+    // rather than starting a flusher that may never run
+    private static volatile boolean isClosed = false;
+
+
+    private static void drainQueue() {
+
+        List<LogEntry> batch = new ArrayList<>();
+
+        while (isRunning) {
+            try {
+                // Wait for the first entry of a new batch
+                LogEntry entry = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+
+                if (entry == null) {
+                    continue;
+                }
+
+                batch.add(entry);
+
+                // Give the batch up to the linger time to fill
+                long deadline = System.nanoTime()
+                        + TimeUnit.MILLISECONDS.toNanos(LogWriter.lingerMs);
+
+                while (batch.size() < LogWriter.batchSize) {
+
+                    queue.drainTo(batch, LogWriter.batchSize - batch.size());
+
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= LogWriter.batchSize || remaining <= 0) {
+                        break;
+                    }
+
+                    entry = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (entry == null) {
+                        break;
+                    }
+                    batch.add(entry);
+                }
+
+                writeBatch(batch);
+
+            } catch (RuntimeException e) {
+                // Keep the flusher going or writers waiting on a full queue never return
+                System.err.println("SEVERE: Cannot write queued log entries "
+                        .concat(e.toString()));
+                batch.clear();
+
+            } catch (InterruptedException e) {
+                // Leave remaining entries to be written by flush()
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static synchronized void start() {
+
+        if (!isRunning && !isClosed) {
+
+            // Install JVM shutdown hook so queued entries are flushed on exit
+            LogUtility.hookJvmShutdown();
+
+            queue = new ArrayBlockingQueue<>(LogWriter.queueCapacity);
+            isRunning = true;
+
+            flusher = new Thread(LogQueue::drainQueue, "logalicious-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        }
+    }
+
+    private static void waitForSpace(LogEntry entry) {
+
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            DROPPED.incrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeRemaining() {
+
+        List<LogEntry> batch = new ArrayList<>(queue.size());
+        queue.drainTo(batch);
+        writeBatch(batch);
+    }
+
+    private static void writeBatch(List<LogEntry> batch) {
+
+        // Record any entries lost to a full queue since the last batch
+        long dropped = DROPPED.getAndSet(0);
+        if (dropped > 0) {
+            batch.add(new LogEntry(
+                    System.currentTimeMillis(), LogWriter.WARNING,
+                    LogQueue.class.getName(),
+                    dropped + " log entries were dropped as the log queue was full"));
+        }
+
+        if (!batch.isEmpty()) {
+            LogStore.getDefault().insertLogs(batch);
+            batch.clear();
+        }
+    }
+
+
+    static void flush() {
+        // Stops the flusher and writes out anything still queued
+
+        Thread running;
+
+        synchronized (LogQueue.class) {
+            isClosed = true;
+
+            if (!isRunning) {
+                return;
+            }
+            isRunning = false;
+            running = flusher;
+            flusher = null;
+        }
+
+        try {
+            // Let the flusher finish writing its current batch
+            running.join(SHUTDOWN_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        writeRemaining();
+    }
+
+    static void put(LogEntry entry) {
+
+        if (!isRunning) {
+            start();
+        }
+
+        if (isClosed) {
+            // Shutting down so nothing would drain the queue
+            LogStore.getDefault().writeLog(entry);
+            return;
+        }
+
+        // Try to queue without waiting first
+        if (!queue.offer(entry)) {
+
+            // Queue is full so apply the configured policy
+            switch (LogWriter.queuePolicy) {
+
+                case DROP:
+                    DROPPED.incrementAndGet();
+                    return;
+
+                case DROP_BELOW_SEVERITY:
+                    if (entry.severity.intValue() < LogWriter.dropBelow.intValue()) {
+                        DROPPED.incrementAndGet();
+                        return;
+                    }
+                    // Severe enough to keep so wait for space as with BLOCK
+                    waitForSpace(entry);
+                    break;
+
+                default:
+                    waitForSpace(entry);
+            }
+        }
+
+        // Queued as flush emptied the queue for the last time, so write it here
+        if (isClosed) {
+            writeRemaining();
+        }
+    }
+
+    static int size() {
+
+        BlockingQueue<LogEntry> waiting = queue;
+        return waiting == null ? 0 : waiting.size();
+    }
+}
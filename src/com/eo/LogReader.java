@@ -1,8 +1,13 @@
 package com.eo;
 
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * @author Created by eodeluga on 21/11/18.
@@ -11,6 +16,50 @@ import java.util.logging.Level;
 
 public class LogReader {
 
+    /**
+     * Used to read log entries from the log database
+     *
+     * <p>
+     * <b>Class variables</b>
+     * <ul>
+     * <li><b>fetchSize</b> - Number of entries read from the database at a time - <b>Default:</b> 500
+     * </p></ul>
+     */
+
+    public static int fetchSize = 500;
+
+
+    static void appendEntry(Appendable out, LogEntry entry) throws IOException {
+
+        out.append(entry.severity.getName());
+        out.append(":");
+        out.append(System.lineSeparator());
+
+        // Date and time
+        out.append(LogUtility.formatTimestamp(entry.timestamp));
+        out.append(" ");
+
+        // Exception throwing class
+        out.append(entry.callingClass);
+
+        if (entry.repeats > 1) {
+            // Coalesced entry so say how often and until when it was repeated
+            out.append(" (repeated ");
+            out.append(String.valueOf(entry.repeats));
+            out.append(" times until ");
+            out.append(LogUtility.formatTimestamp(entry.lastSeen));
+            out.append(")");
+        }
+        out.append(System.lineSeparator());
+
+        // Message
+        out.append(entry.message);
+        out.append(System.lineSeparator());
+
+        out.append(System.lineSeparator());
+    }
+
+
     /**
      * Read log entries from the the log database
      *
@@ -19,41 +68,110 @@ public class LogReader {
      */
     public static String readLog(Level severity, Boolean sent) {
 
-        ResultSet result = LogDatabase.getLog(severity, sent);
+        return readLog(severity, sent, false);
+    }
+
+    /**
+     * Read log entries from the the log database and optionally its archived segments
+     *
+     * @param  severity The minimum severity level of entries to read
+     * @param sent Toggle for entries that have been emailed
+     * @param archived Toggle to include archived segments, read before the live log
+     */
+    public static String readLog(Level severity, Boolean sent, boolean archived) {
+
         StringBuilder logEntry = new StringBuilder();
 
         try {
+            readLog(severity, sent, archived, logEntry);
+
+        } catch (IOException e) {
+            // StringBuilder never throws
+            System.err.println("SEVERE: Cannot read log database "
+                    .concat(e.toString()));
+        }
+
+        return logEntry.toString();
+    }
+
+    /**
+     * Write log entries straight to a Writer, file or other Appendable
+     * without holding them all in memory
+     *
+     * @param  severity The minimum severity level of entries to read
+     * @param sent Toggle for entries that have been emailed
+     * @param archived Toggle to include archived segments, read before the live log
+     * @param out Where the formatted entries are written
+     * @throws IOException Thrown if out cannot be written to
+     */
+    public static void readLog(Level severity, boolean sent, boolean archived,
+                               Appendable out) throws IOException {
 
-            while (result != null && result.next()){
+        Iterator<LogEntry> cursor = new LogCursor(severity, sent, archived, fetchSize);
 
-                logEntry.append(result.getString(LogDBStrings.SEVERITY_NAME));
-                logEntry.append(":");
-                logEntry.append(System.lineSeparator());
+        while (cursor.hasNext()) {
+            appendEntry(out, cursor.next());
+        }
+    }
 
-                // Date
-                logEntry.append(result.getString(LogDBStrings.DATE));
-                logEntry.append(" ");
+    /**
+     * Find log entries by time, severity and calling class a page at a time, e.g.
+     * LogReader.query().severity(Level.SEVERE).newestFirst().limit(100).list()
+     *
+     * @return A query of the log database
+     */
+    public static LogQuery query() { return new LogQuery(LogStore.getDefault()); }
 
-                // Time
-                logEntry.append(result.getString(LogDBStrings.TIME));
-                logEntry.append(" ");
+    /**
+     * Find the most recent log entries whose message contains every word of the text
+     *
+     * @param text Words to search for, a word ending in * matches any word starting with it
+     * @return Up to 100 matching entries, newest first
+     */
+    public static List<LogEntry> search(String text) {
 
-                // Exception throwing class
-                logEntry.append(result.getString(LogDBStrings.CLASS));
-                logEntry.append(System.lineSeparator());
+        return search(text, query().newestFirst());
+    }
 
-                // Message
-                logEntry.append(result.getString(LogDBStrings.MESSAGE));
-                logEntry.append(System.lineSeparator());
+    /**
+     * Find log entries whose message contains every word of the text, e.g.
+     * LogReader.search("connection refused", LogReader.query().severity(Level.SEVERE))
+     *
+     * @param text Words to search for, a word ending in * matches any word starting with it
+     * @param filters Query giving the time range, severity, order, page and limit
+     * @return The matching entries
+     */
+    public static List<LogEntry> search(String text, LogQuery filters) {
 
-                logEntry.append(System.lineSeparator());
-            }
+        return filters.matching(text).list();
+    }
 
-        } catch (SQLException e) {
-            System.err.println("SEVERE: Cannot read log database "
-                    .concat(e.toString()));
-        }
+    /**
+     * Stream log entries from the log database, reading fetchSize entries at a time
+     *
+     * @param  severity The minimum severity level of entries to read
+     * @param sent Toggle for entries that have been emailed
+     * @return The matching entries in the order they were written
+     */
+    public static Stream<LogEntry> streamLog(Level severity, boolean sent) {
 
-        return logEntry.toString();
+        return streamLog(severity, sent, false);
+    }
+
+    /**
+     * Stream log entries from the log database and optionally its archived
+     * segments, reading fetchSize entries at a time
+     *
+     * @param  severity The minimum severity level of entries to read
+     * @param sent Toggle for entries that have been emailed
+     * @param archived Toggle to include archived segments, read before the live log
+     * @return The matching entries in the order they were written
+     */
+    public static Stream<LogEntry> streamLog(Level severity, boolean sent, boolean archived) {
+
+        LogCursor cursor = new LogCursor(severity, sent, archived, fetchSize);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,147 @@
+package com.eo;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared daemon timer for the library's periodic housekeeping tasks, and
+ * the workers that blocking work such as SMTP sends and database reads is
+ * handed to. Workers are virtual threads when the Jvm has them, otherwise a
+ * small pool of platform threads that exit when idle
+ */
+class LogScheduler {
+
+    // Most platform threads used for blocking work when there are no virtual threads
+    private static final int MAX_PLATFORM_WORKERS = 4;
+    private static final long WORKER_IDLE_SECONDS = 60;
+
+    private static ScheduledExecutorService timer;
+    private static ExecutorService workers;
+
+
+    private static synchronized ScheduledExecutorService getTimer() {
+
+        // Created on first use so applications that never need it pay nothing
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "logalicious-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return timer;
+    }
+
+    private static synchronized ExecutorService getWorkers() {
+
+        if (workers == null) {
+            workers = newVirtualThreadExecutor();
+        }
+
+        if (workers == null) {
+            workers = newPlatformThreadExecutor();
+        }
+
+        return workers;
+    }
+
+    private static ExecutorService newPlatformThreadExecutor() {
+
+        AtomicInteger count = new AtomicInteger();
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                MAX_PLATFORM_WORKERS, MAX_PLATFORM_WORKERS,
+                WORKER_IDLE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                task -> {
+                    Thread thread = new Thread(task,
+                            "logalicious-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        // Let every thread exit when there is nothing to do
+        pool.allowCoreThreadTimeOut(true);
+
+        return pool;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+
+        // Looked up by reflection so the library still builds and runs on
+        // Jvms without virtual threads
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static Runnable guard(Runnable task) {
+
+        return () -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // Keep the worker and any schedule alive for the next run
+                System.err.println("SEVERE: Background task failed "
+                        .concat(e.toString()));
+            }
+        };
+    }
+
+
+    static Future<?> execute(Runnable task) {
+        // Runs blocking work on a worker thread
+
+        return getWorkers().submit(guard(task));
+    }
+
+    static ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long periodMs) {
+        // Runs short non-blocking work on the timer thread itself
+
+        return getTimer().scheduleAtFixedRate(
+                task, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    static ScheduledFuture<?> scheduleBlocking(Runnable task, long periodMs) {
+        // The timer only hands the task to a worker so a slow run never delays
+        // other timed tasks. A run is skipped if the last one is still going
+
+        AtomicBoolean isRunning = new AtomicBoolean(false);
+        Runnable run = guard(task);
+
+        return getTimer().scheduleAtFixedRate(() -> {
+
+            if (!isRunning.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                getWorkers().execute(() -> {
+                    try {
+                        run.run();
+                    } finally {
+                        isRunning.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                isRunning.set(false);
+            }
+
+        }, periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+}
@@ -1,19 +1,27 @@
 package com.eo;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+import javax.activation.DataHandler;
 import javax.mail.Authenticator;
 import javax.mail.Message;
 import javax.mail.MessagingException;
+import javax.mail.Multipart;
 import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.util.ByteArrayDataSource;
 
 /**
  * @author Created by eodeluga on 25/10/18.
@@ -46,6 +54,13 @@ public class LogSender {
      * <li><b>interval</b> Specifies how often new log entries are sent (15 secs minimum) - <b>Default:</b> 60
      * <li><b>port</b> SMTP server port for sending mail - <b>Default:</b> 587 (TLS)
      * <li><b>useTLS</b> Switch to use TLS encrypted mail - <b>Default:</b> True
+     * <li><b>maxBufferEntries</b> Most log entries sent in one email - <b>Default:</b> 1000
+     * <li><b>maxBufferBytes</b> Approximate largest size of one email body - <b>Default:</b> 1048576
+     * <li><b>overflowPolicy</b> Which entries to keep when a limit is reached - <b>Default:</b> TRUNCATE
+     * <li><b>attachThreshold</b> Emails longer than this many characters are sent as a gzip
+     * attachment, 0 always sends inline - <b>Default:</b> 0
+     * <li><b>keepAlive</b> Keep the SMTP connection open between sends - <b>Default:</b> False
+     * <li><b>idleTimeout</b> Seconds an unused kept alive connection stays open - <b>Default:</b> 300
      * </p></ul>
      */
 
@@ -62,9 +77,43 @@ public class LogSender {
     public static int interval = 60;
     public static int port = 587;
     public static boolean useTLS = true;
+    public static int maxBufferEntries = 1000;
+    public static long maxBufferBytes = 1024 * 1024;
+    public static OverflowPolicy overflowPolicy = OverflowPolicy.TRUNCATE;
+    public static int attachThreshold = 0;
+    public static boolean keepAlive = false;
+    public static int idleTimeout = 300;
+
+    // Name the sender's cursor of sent entries is stored under
+    static final String CURSOR_NAME = "LogSender";
+    private static final String ATTACHMENT_NAME = "log.txt.gz";
 
     private static boolean isRunning = false;
-    private static final StringBuilder MSG_BUFFER = new StringBuilder();
+    private static ScheduledFuture<?> sendTask;
+
+    // Mail session kept for the life of the service and the settings it was built from
+    private static Session session;
+    private static String sessionKey;
+
+    // Producers add to the active buffer while the sending buffer is emailed,
+    // the two are swapped at the start of each send
+    private static final Object BUFFER_LOCK = new Object();
+    private static LogBuffer activeBuffer = new LogBuffer();
+    private static LogBuffer sendingBuffer = new LogBuffer();
+
+
+    /**
+     * Policies applied when new entries would take an email past its limits.
+     * The number of entries left out is added to the end of the email
+     *
+     * <p><ul>
+     * <li><b>TRUNCATE</b> - Keep the oldest entries and leave out the rest
+     * <li><b>KEEP_NEWEST</b> - Drop the oldest entries to make room for new ones
+     * <li><b>KEEP_HIGHEST_SEVERITY</b> - Drop the least severe entries to make room
+     * </ul></p>
+     */
+    public enum OverflowPolicy { TRUNCATE, KEEP_NEWEST, KEEP_HIGHEST_SEVERITY }
+
 
     private static Authenticator getAuthenticator() {
 
@@ -76,87 +125,81 @@ public class LogSender {
         };
     }
 
-    private static void sendMail() {
-
-        // Have to synchronise msgBuffer as could be modified in send()
-        synchronized (MSG_BUFFER) {
-
-            if (MSG_BUFFER.length() > 0) {
+    private static void setAttachment(Message msg, String message, int entries)
+            throws MessagingException {
 
-                String message = MSG_BUFFER.toString();
+        byte[] compressed;
 
-                // Initialise the mail session
-                Session session = setupSession();
-
-                try {
-                    // Instantiate a message
-                    Message msg = new MimeMessage(session);
-
-                    // Set message attributes
-                    msg.setFrom(new InternetAddress(from));
-                    InternetAddress[] address = InternetAddress.parse(to);
-                    msg.setRecipients(Message.RecipientType.TO, address);
-                    msg.setSubject(subject);
-                    msg.setSentDate(new Date());
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length() / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                gzip.write(message.getBytes(StandardCharsets.UTF_8));
+            }
+            compressed = bytes.toByteArray();
 
-                    // Set message content
-                    msg.setText(message);
+        } catch (IOException e) {
+            // Cannot compress so fall back to sending inline
+            msg.setText(message);
+            return;
+        }
 
-                    //Send the message
-                    Transport.send(msg);
+        // Short note in the body with the log itself attached
+        MimeBodyPart body = new MimeBodyPart();
+        body.setText(entries + " log entries are attached as " + ATTACHMENT_NAME);
 
-                    // Mark selected log entries as sent
-                    LogDatabase.markAsSent(severity);
+        MimeBodyPart attachment = new MimeBodyPart();
+        attachment.setDataHandler(new DataHandler(
+                new ByteArrayDataSource(compressed, "application/gzip")));
+        attachment.setFileName(ATTACHMENT_NAME);
 
-                    // Clear down the message buffer
-                    MSG_BUFFER.setLength(0);
+        Multipart content = new MimeMultipart();
+        content.addBodyPart(body);
+        content.addBodyPart(attachment);
+        msg.setContent(content);
+    }
 
-                } catch (MessagingException e) {
-                    LogWriter.writeLog(LogWriter.SEVERE, e.toString());
-                    System.err.println("SEVERE: " + e.toString());
+    private static Session setupSession() {
 
-                    // Clear down the message buffer
-                    MSG_BUFFER.setLength(0);
-                }
-            }
+        // Plain text SMTP session so check if a port has been specified
+        if (!useTLS && port == 587) {
+            // Port is still set for TLS so was not specified
+            // Setting port to default SMTP
+            port = 25;
         }
-    }
 
-    private static Session setupSession() {
+        // Reuse the session for as long as the mail settings are unchanged
+        String key = host + ":" + port + ":" + useTLS + ":" + username + ":" + password;
+        if (session != null && key.equals(sessionKey)) {
+            return session;
+        }
 
         // Set properties and setup mail session
-        Session session;
         Properties props = new Properties();
 
-        // If using static Transport.send(),
-        // need to specify which host to send it to
         if (useTLS) {
             props.put("mail.smtp.auth", "true");
             props.put("mail.smtp.starttls.enable", "true");
-            props.put("mail.smtp.port", port);
         }
 
+        // Transport needs to be told which host to send to
         props.put("mail.smtp.host", host);
+        props.put("mail.smtp.port", port);
 
         // Get an authenticated or plain text mail session
         if (useTLS) {
 
             // Get an authenticated SMTP session
-            session = Session.getDefaultInstance(props, getAuthenticator());
+            session = Session.getInstance(props, getAuthenticator());
 
         } else {
 
-            // Plain text SMTP session so check if a port has been specified
-            if (port == 587) {
-                // Port is still set for TLS so was not specified
-                // Setting port to default SMTP
-                port = 25;
-            }
-
-            props.put("mail.smtp.port", port);
             session = Session.getInstance(props);
         }
 
+        // Connections of the old session are no use to the new one
+        LogTransport.close();
+        sessionKey = key;
+
         return session;
     }
 
@@ -197,14 +240,84 @@ public class LogSender {
     }
 
 
-    static void send(String message) {
+    static int getBufferDepth() {
+
+        synchronized (BUFFER_LOCK) {
+            return activeBuffer.size();
+        }
+    }
+
+    static void send(LogEntry entry) {
+
+        // Only held long enough to add the entry, never while sending
+        synchronized (BUFFER_LOCK) {
+
+            // Add logged event entry to buffer
+            activeBuffer.add(entry);
+        }
+    }
+
+    static void sendMail() {
+
+        // Swap buffers so producers never wait for the SMTP round trip
+        synchronized (BUFFER_LOCK) {
 
-        // Have to synchronise msgBuffer as could be accessed in sendMail()
-        synchronized (MSG_BUFFER) {
+            LogBuffer swap = sendingBuffer;
+            sendingBuffer = activeBuffer;
+            activeBuffer = swap;
+        }
 
-            // Add logged event message to buffer
-            MSG_BUFFER.append(message);
+        // Only this thread touches the sending buffer
+        if (sendingBuffer.isEmpty()) {
+            return;
         }
+
+        LogMetrics.sendCycle();
+        String message = sendingBuffer.render();
+
+        // Get the cached mail session
+        Session mailSession = setupSession();
+        long start = System.nanoTime();
+
+        try {
+            // Instantiate a message
+            Message msg = new MimeMessage(mailSession);
+
+            // Set message attributes
+            msg.setFrom(new InternetAddress(from));
+            InternetAddress[] address = InternetAddress.parse(to);
+            msg.setRecipients(Message.RecipientType.TO, address);
+            msg.setSubject(subject);
+            msg.setSentDate(new Date());
+
+            // Set message content, attaching large digests compressed
+            if (attachThreshold > 0 && message.length() > attachThreshold) {
+                setAttachment(msg, message, sendingBuffer.size());
+            } else {
+                msg.setText(message);
+            }
+
+            //Send the message
+            start = System.nanoTime();
+            LogTransport.send(mailSession, msg);
+            LogMetrics.emailSent(message.length(), System.nanoTime() - start);
+
+            // Mark log entries up to the last one buffered as sent
+            LogStore.getDefault().markAsSent(CURSOR_NAME, sendingBuffer.getLastId());
+
+        } catch (MessagingException e) {
+            LogMetrics.emailFailed(System.nanoTime() - start);
+            LogWriter.writeLog(LogWriter.SEVERE, e.toString());
+            System.err.println("SEVERE: " + e.toString());
+
+            // Try the entries again next time, ahead of any read since
+            synchronized (BUFFER_LOCK) {
+                activeBuffer.addFirst(sendingBuffer);
+            }
+        }
+
+        // Clear down the message buffer
+        sendingBuffer.clear();
     }
 
     /**
@@ -230,31 +343,19 @@ public class LogSender {
             return;
         }
 
-        // Start log db file watcher service
-        try {
-            LogWatcher.registerWatcher(severity);
-
-            // Check watcher is running
-            if (LogWatcher.executor != null) {
+        // Start watcher service that is woken when new entries are written
+        LogWatcher.registerWatcher(severity);
 
-                // Override email sending interval if set too low
-                if (interval < 15) {
-                    interval = 15;}
+        // Override email sending interval if set too low
+        if (interval < 15) {
+            interval = 15;}
 
-                // Add new thread to run sendMail at class default or class variable specified interval
-                // and start execution to begin after initial 30 sec delay
-                LogWatcher.executor
-                        .scheduleAtFixedRate(
-                                LogSender::sendMail, interval, interval, TimeUnit.SECONDS);
+        // Run sendMail on a worker at class default or class variable specified interval
+        // and start execution to begin after initial interval delay
+        sendTask = LogScheduler.scheduleBlocking(
+                LogSender::sendMail, TimeUnit.SECONDS.toMillis(interval));
 
-                isRunning = true;
-            }
-
-        } catch (IOException e) {
-            LogWriter.writeLog(Level.WARNING, e.toString());
-            System.err.println("WARNING: " + e.toString());
-
-        }
+        isRunning = true;
     }
 
     /**
@@ -262,9 +363,16 @@ public class LogSender {
      */
     public static void stopService() {
 
-        // Stop all threads and unregister watcher service
+        // Stop the send schedule and unregister watcher service
+        if (sendTask != null) {
+            sendTask.cancel(false);
+            sendTask = null;
+        }
         LogWatcher.unregisterWatcher();
 
+        // Close any SMTP connection kept alive between sends
+        LogTransport.close();
+
         isRunning = false;
     }
 
@@ -0,0 +1,145 @@
+package com.eo;
+
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * Spreads writes across independent encrypted log databases so threads
+ * writing to different shards never wait on each other. Reads merge the
+ * shards back into time order
+ */
+class LogShards {
+
+    private final LogStore[] shards;
+    // The default store is shared with LogWriter so is never closed for good
+    private final boolean isShared;
+
+    // Each thread keeps to one shard, handed out in turn as threads first write
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final ThreadLocal<LogStore> threadShard;
+
+
+    LogShards(Path path, int count) {
+
+        shards = new LogStore[Math.max(1, count)];
+        isShared = false;
+
+        if (shards.length == 1) {
+            shards[0] = LogStore.open(path);
+
+        } else {
+            // Shards sit side by side as log-0.mv.db, log-1.mv.db...
+            String name = path.getFileName().toString().replace(".mv.db", "");
+            for (int i = 0; i < shards.length; i++) {
+                shards[i] = LogStore.open(path.resolveSibling(name + "-" + i + ".mv.db"));
+            }
+        }
+
+        threadShard = ThreadLocal.withInitial(() ->
+                shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)]);
+    }
+
+    LogShards(LogStore store) {
+
+        shards = new LogStore[] { store };
+        isShared = true;
+        threadShard = ThreadLocal.withInitial(() -> store);
+    }
+
+
+    /**
+     * Merges the entries of each shard, already in the order they were
+     * written, by the time they were logged
+     */
+    private static final class MergeCursor implements Iterator<LogEntry> {
+
+        private final PriorityQueue<Head> heads = new PriorityQueue<>(
+                Comparator.comparingLong((Head head) -> head.entry.timestamp)
+                        .thenComparingInt(head -> head.shard));
+
+        MergeCursor(LogCursor[] cursors) {
+
+            for (int i = 0; i < cursors.length; i++) {
+                if (cursors[i].hasNext()) {
+                    heads.add(new Head(i, cursors[i]));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() { return !heads.isEmpty(); }
+
+        @Override
+        public LogEntry next() {
+
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+
+            LogEntry entry = head.entry;
+            entry.shard = head.shard;
+
+            // Put the shard back in line with its next entry
+            if (head.cursor.hasNext()) {
+                head.entry = head.cursor.next();
+                heads.add(head);
+            }
+
+            return entry;
+        }
+    }
+
+    /**
+     * Next entry to be merged from a shard
+     */
+    private static final class Head {
+
+        private final int shard;
+        private final LogCursor cursor;
+        private LogEntry entry;
+
+        Head(int shard, LogCursor cursor) {
+
+            this.shard = shard;
+            this.cursor = cursor;
+            this.entry = cursor.next();
+        }
+    }
+
+
+    void close() {
+
+        if (isShared) {
+            shards[0].closeDatabase();
+            return;
+        }
+
+        for (LogStore shard : shards) {
+            shard.close();
+        }
+    }
+
+    Iterator<LogEntry> cursor(Level severity, boolean isSent, boolean archived) {
+
+        if (shards.length == 1) {
+            return new LogCursor(shards[0], severity, isSent, archived, LogReader.fetchSize);
+        }
+
+        LogCursor[] cursors = new LogCursor[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            cursors[i] = new LogCursor(shards[i], severity, isSent, archived, LogReader.fetchSize);
+        }
+
+        return new MergeCursor(cursors);
+    }
+
+    LogStore[] getStores() { return shards; }
+
+    void insertLog(LogEntry entry) { threadShard.get().writeLog(entry); }
+}
@@ -0,0 +1,305 @@
+package com.eo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+
+/**
+ * Where log entries are kept. LogDatabase keeps them in an encrypted H2
+ * database and LogJournal appends them to encrypted journal files, the one
+ * used is chosen by LogWriter.storeType when a store is first opened.
+ * Opening a store can take a second, so entries written through writeLog
+ * are held in memory while it is opened in the background. With
+ * LogWriter.groupCommit, entries written through writeLog at the same time
+ * are inserted and flushed together by whichever writer leads the group
+ */
+abstract class LogStore {
+
+    // Every store opened, so they can all be closed when the Jvm quits
+    private static final Set<LogStore> OPENED = new CopyOnWriteArraySet<>();
+    // Store at ./log/log.mv.db used by LogWriter, LogReader and LogSender
+    private static volatile LogStore defaultStore;
+
+    // Entries written while the store is opened in the background
+    private final List<LogEntry> pending = new ArrayList<>();
+    private volatile boolean isOpen = false;
+    private boolean isOpening = false;
+
+    // Entries waiting for the next group commit, groups are numbered in
+    // the order they are written so writers know when theirs is done
+    private final List<LogEntry> group = new ArrayList<>();
+    private long fillingGroup = 1;
+    private long writtenGroup = 0;
+    private boolean isLeading = false;
+
+
+    LogStore() {
+        OPENED.add(this);
+    }
+
+
+    private void commitInGroup(LogEntry entry) {
+
+        List<LogEntry> entries;
+        long leading;
+        boolean isInterrupted = false;
+
+        synchronized (group) {
+
+            group.add(entry);
+            long joined = fillingGroup;
+
+            // Wait while another writer leads, it may write this entry's group
+            while (isLeading && writtenGroup < joined) {
+                try {
+                    group.wait();
+                } catch (InterruptedException e) {
+                    // The entry is already queued so wait for it to be written
+                    isInterrupted = true;
+                }
+            }
+
+            if (writtenGroup >= joined) {
+                entries = null;
+                leading = 0;
+
+            } else {
+                // Lead the group, later writers start filling the next one
+                isLeading = true;
+                entries = new ArrayList<>(group);
+                group.clear();
+                leading = fillingGroup++;
+            }
+        }
+
+        if (entries != null) {
+            try {
+                // One transaction and one flush for every writer in the group
+                insertLogs(entries);
+                flush();
+
+            } finally {
+                synchronized (group) {
+                    writtenGroup = leading;
+                    isLeading = false;
+                    group.notifyAll();
+                }
+            }
+        }
+
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() {
+
+        if (LogWriter.durability != LogWriter.Durability.NONE) {
+            flush(LogWriter.durability == LogWriter.Durability.FSYNC);
+        }
+    }
+
+    private void openInBackground() {
+
+        open();
+
+        synchronized (pending) {
+
+            // Held entries go before any written from now on so the order is kept
+            if (!pending.isEmpty()) {
+                insertLogs(new ArrayList<>(pending));
+                pending.clear();
+            }
+
+            isOpen = true;
+            pending.notifyAll();
+        }
+    }
+
+    private void startOpening() {
+        // Called holding pending
+
+        if (!isOpening) {
+            isOpening = true;
+
+            // Cheap to install now and makes sure held entries are
+            // written if the Jvm quits before the store is open
+            LogUtility.hookJvmShutdown();
+            LogScheduler.execute(this::openInBackground);
+        }
+    }
+
+
+    static void closeAll() {
+
+        for (LogStore store : OPENED) {
+            store.awaitOpen();
+            store.closeDatabase();
+        }
+    }
+
+    static LogStore getDefault() {
+
+        LogStore store = defaultStore;
+
+        if (store == null) {
+            synchronized (LogStore.class) {
+                if (defaultStore == null) {
+                    try {
+                        defaultStore = open(LogUtility.getLogPath());
+                    } catch (IOException e) {
+                        // Canonical path unavailable so settle for the absolute one
+                        System.err.println("WARNING: Cannot resolve log path "
+                                .concat(e.toString()));
+                        defaultStore = open(Paths.get("log", "log.mv.db").toAbsolutePath());
+                    }
+                }
+                store = defaultStore;
+            }
+        }
+
+        return store;
+    }
+
+    static LogStore open(Path path) {
+
+        // Journals sit beside where the database would be, as log.journal
+        if (LogWriter.storeType == LogWriter.StoreType.JOURNAL) {
+            return new LogJournal(path.resolveSibling(
+                    path.getFileName().toString().replace(".mv.db", ".journal")));
+        }
+
+        return new LogDatabase(path);
+    }
+
+
+    void awaitOpen() {
+        // Waits for a store being opened in the background and the entries
+        // held while it was, so reads and closing do not miss them
+
+        if (isOpen) {
+            return;
+        }
+
+        boolean isInterrupted = false;
+
+        synchronized (pending) {
+            while (isOpening && !isOpen) {
+                try {
+                    pending.wait();
+                } catch (InterruptedException e) {
+                    // Finish waiting so no entry is missed, then pass the interrupt on
+                    isInterrupted = true;
+                }
+            }
+        }
+
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void close() {
+        // Closes the store for good, unlike closeDatabase which lets it reopen
+
+        awaitOpen();
+        closeDatabase();
+        OPENED.remove(this);
+    }
+
+    void preload() {
+        // Opens the store in the background before anything is written
+
+        if (!isOpen) {
+            synchronized (pending) {
+                if (!isOpen) {
+                    startOpening();
+                }
+            }
+        }
+    }
+
+    void writeLog(LogEntry entry) {
+
+        if (!isOpen && LogWriter.durability != LogWriter.Durability.NONE) {
+            // Holding the entry in memory would not be durable, so wait
+            // for an open already under way and write it directly
+            awaitOpen();
+
+        } else if (!isOpen && LogWriter.startupBufferSize > 0) {
+
+            synchronized (pending) {
+                if (!isOpen) {
+                    // First write starts the store opening rather than waiting for it
+                    startOpening();
+
+                    if (pending.size() < LogWriter.startupBufferSize) {
+                        pending.add(entry);
+                        return;
+                    }
+                }
+            }
+
+            // Too many entries held so wait for the store like any other write
+            awaitOpen();
+        }
+
+        if (LogWriter.groupCommit) {
+            commitInGroup(entry);
+
+        } else {
+            insertLog(entry);
+            flush();
+        }
+    }
+
+    /**
+     * Closes the files of the store, they are opened again by the next operation
+     */
+    abstract void closeDatabase();
+
+    /**
+     * Makes what has been written so far durable, forced to disk if toDisk
+     * or otherwise written to the log file
+     */
+    abstract void flush(boolean toDisk);
+
+    /**
+     * @return Size in bytes of the live log
+     */
+    abstract long getSize() throws IOException;
+
+    abstract void insertLog(LogEntry entry);
+
+    /**
+     * Writes the entries together, so either all or none of them are kept
+     */
+    abstract void insertLogs(List<LogEntry> entries);
+
+    /**
+     * Moves the sender's cursor forward to lastId, entries up to it count as sent
+     */
+    abstract void markAsSent(String sender, long lastId);
+
+    /**
+     * Opens or creates the store now rather than at its first use
+     */
+    abstract void open();
+
+    /**
+     * Reads the next page of entries after afterId from the live log
+     * (segment 0) or an archived segment, in the order they were written
+     */
+    abstract List<LogEntry> getLogPage(int segment, String sender, Level severity,
+                                       boolean isSent, long afterId, int limit);
+
+    /**
+     * Runs a query against the live log (segment 0) or an archived segment
+     */
+    abstract List<LogEntry> query(LogQuery query, int segment);
+}
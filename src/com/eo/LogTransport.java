@@ -0,0 +1,75 @@
+package com.eo;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+
+/**
+ * Sends log emails, optionally over an SMTP connection kept open between
+ * sends when LogSender.keepAlive is set. Only used by the sending thread
+ */
+class LogTransport {
+
+    private static Transport transport;
+    private static long lastUsed = 0;
+
+
+    private static void connect(Session session) throws MessagingException {
+
+        // Host, port and credentials come from the session
+        transport = session.getTransport("smtp");
+        transport.connect();
+    }
+
+    private static boolean isIdle() {
+
+        return System.currentTimeMillis() - lastUsed
+                > LogSender.idleTimeout * 1000L;
+    }
+
+
+    static synchronized void close() {
+
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                // Connection is being discarded anyway
+                System.err.println("WARNING: Cannot close SMTP connection " + e.toString());
+            }
+            transport = null;
+        }
+    }
+
+    static synchronized void send(Session session, Message msg) throws MessagingException {
+
+        if (!LogSender.keepAlive) {
+            // Connect, send and disconnect
+            Transport.send(msg);
+            return;
+        }
+
+        // Server has probably dropped a connection left unused this long
+        if (transport != null && isIdle()) {
+            close();
+        }
+
+        msg.saveChanges();
+
+        try {
+            if (transport == null) {
+                connect(session);
+            }
+            transport.sendMessage(msg, msg.getAllRecipients());
+
+        } catch (MessagingException e) {
+            // Connection may have gone stale so reconnect and try once more
+            close();
+            connect(session);
+            transport.sendMessage(msg, msg.getAllRecipients());
+        }
+
+        lastUsed = System.currentTimeMillis();
+    }
+}
@@ -1,32 +1,71 @@
 package com.eo;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.time.LocalDateTime;
+import java.text.MessageFormat;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Created by eodeluga on 16/12/18.
  */
 class LogUtility {
 
+    // Stored in place of the calling class when it is not captured
+    static final String UNKNOWN_CLASS = "Unknown";
+
+    // Longer words are cut to fit the index
+    static final int MAX_TERM_LENGTH = 64;
+    // Stops a huge message or stack trace filling the index on its own
+    static final int MAX_TERMS = 1000;
+
+    // Walker instances are thread safe so one is shared by all callers
+    private static final StackWalker WALKER =
+            StackWalker.getInstance(StackWalker.Option.RETAIN_CLASS_REFERENCE);
+
+    // Formatters are immutable and thread safe so one is shared by all readers
+    static final DateTimeFormatter DATE_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("dd MMM yyyy HH:mm:ss")
+                    .withZone(ZoneId.systemDefault());
+
+    // Compressors hold native memory so each thread keeps and reuses its own
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER =
+            ThreadLocal.withInitial(Inflater::new);
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     private static boolean jvmHookInstalled = false;
-    static Path logPath;
+    private static volatile Path logPath;
 
 
     private static char[] byteToCharArray(byte[] bytes) {
 
-        StringBuilder sb = new StringBuilder(bytes.length * 2);
-        for(byte b: bytes) {
-            sb.append(String.format("%02x", b & 0xff));
+        // Written straight into the array, unlike a String it can be erased after use
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
         }
-        String s = sb.toString();
 
         eraseArray(bytes);
-        return s.toCharArray();
+        return chars;
     }
 
     private static void eraseArray(byte[] bytes) {
@@ -50,13 +89,115 @@ class LogUtility {
     private static void TTFO() {
 
         // Jvm is quitting so clean up
-        LogWatcher.unregisterWatcher();
-        LogDatabase.closeDatabase();
+        LogSender.stopService();
+        // Write out anything still held for coalescing or waiting in the async queue
+        LogLimiter.flush();
+        LogCoalescer.flush();
+        LogQueue.flush();
+        LogStore.closeAll();
     }
 
 
-    static boolean deleteLog() {
-        return new File(logPath.toString()).delete();
+    static byte[] compress(String text) {
+
+        return deflate(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static byte[] deflate(byte[] data) {
+
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+        byte[] chunk = new byte[4096];
+
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+
+        return out.toByteArray();
+    }
+
+    static String decompress(byte[] packed) {
+
+        return new String(inflate(packed), StandardCharsets.UTF_8);
+    }
+
+    static byte[] inflate(byte[] packed) {
+
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(packed);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(packed.length * 4);
+        byte[] chunk = new byte[4096];
+
+        try {
+            while (!inflater.finished()) {
+
+                int length = inflater.inflate(chunk);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    // Truncated data so return what could be recovered
+                    break;
+                }
+                out.write(chunk, 0, length);
+            }
+        } catch (DataFormatException e) {
+            System.err.println("SEVERE: Cannot decompress log message "
+                    .concat(e.toString()));
+        }
+
+        return out.toByteArray();
+    }
+
+    static Path getArchivePath(Path live, int segment) {
+
+        // Archived segments sit beside the live log as log.1.mv.db, log.2.mv.db...
+        // or log.1.journal, log.2.journal... for journals
+        String name = live.getFileName().toString();
+        int extension = name.endsWith(".mv.db")
+                ? name.length() - ".mv.db".length()
+                : name.lastIndexOf('.');
+
+        if (extension < 0) {
+            extension = name.length();
+        }
+
+        return live.resolveSibling(name.substring(0, extension) + "." + segment
+                + name.substring(extension));
+    }
+
+    static void rollLog(Path live) throws IOException {
+        // Moves the live log into the newest archive segment,
+        // shifting older segments along and dropping the oldest
+
+        int segments = LogWriter.maxLogSegments;
+
+        if (segments < 1) {
+            // No archives kept so just remove the live log
+            Files.deleteIfExists(live);
+            return;
+        }
+
+        // Oldest segment was made read only when archived
+        Path oldest = getArchivePath(live, segments);
+        oldest.toFile().setWritable(true);
+        Files.deleteIfExists(oldest);
+
+        for (int i = segments - 1; i > 0; i--) {
+
+            Path archive = getArchivePath(live, i);
+            if (Files.exists(archive)) {
+                Files.move(archive, getArchivePath(live, i + 1));
+            }
+        }
+
+        Files.move(live, getArchivePath(live, 1));
+
+        // Archives are never written to again
+        getArchivePath(live, 1).toFile().setReadOnly();
     }
 
     static char[] generatePassword(char[] keySeed) throws NoSuchAlgorithmException {
@@ -75,40 +216,124 @@ class LogUtility {
         return byteToCharArray(key);
     }
 
-    static String[] getDateTime() {
+    static String getCallerClassName() {
+
+        // Walk only as far as the first frame outside the logging path
+        // rather than filling in the whole stack trace
+        return WALKER.walk(frames -> frames
+                .map(StackWalker.StackFrame::getDeclaringClass)
+                .filter(frameClass -> frameClass != LogUtility.class
+                        && frameClass != LogWriter.class
+                        && frameClass != Logalicious.class)
+                .findFirst()
+                .map(Class::getName)
+                .orElse(UNKNOWN_CLASS));
+    }
+
+    static String formatMessage(String pattern, String[] args) {
+
+        try {
+            return MessageFormat.format(pattern, (Object[]) args);
+        } catch (IllegalArgumentException e) {
+            // Not a valid pattern so keep the message as it was logged
+            return pattern;
+        }
+    }
+
+    static String formatTimestamp(long epochMs) {
+
+        // Return date and time as a single string
+        return DATE_TIME_FORMAT.format(Instant.ofEpochMilli(epochMs));
+    }
+
+    static void addTerms(String text, Set<String> terms) {
+        // Splits text into lower case words of letters and digits, so
+        // java.net.SocketTimeoutException gives java, net and sockettimeoutexception
+
+        if (text == null) {
+            return;
+        }
+
+        int start = -1;
+
+        for (int i = 0; i <= text.length() && terms.size() < MAX_TERMS; i++) {
 
-        LocalDateTime now = LocalDateTime.now();
+            if (i < text.length() && Character.isLetterOrDigit(text.charAt(i))) {
+                if (start < 0) {
+                    start = i;
+                }
 
-        // Return time and date as a String array
-        String[] timeDate;
-        timeDate = (now.format(DateTimeFormatter.ofPattern("dd MMM yyyy.HH:mm:ss"))).split("\\.");
+            } else if (start >= 0) {
 
-        return timeDate;
+                terms.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH))
+                        .toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
     }
 
-    static File getLogFile() throws IOException {
+    static Level parseLevel(String name, int value) {
 
-        logPath = getLogPath();
-        String logFilePath = logPath.toString();
-        return new File(logFilePath);
+        // Standard levels are looked up by name, anything else is rebuilt from its value
+        try {
+            return Level.parse(name);
+        } catch (IllegalArgumentException e) {
+            return Level.parse(String.valueOf(value));
+        }
     }
 
-    static boolean getLogFileExists() throws IOException { return getLogFile().exists(); }
+    static String packArgs(String[] args) {
+
+        // Each value is prefixed with its length so values can contain anything
+        StringBuilder packed = new StringBuilder();
+        for (String arg : args) {
+            packed.append(arg.length()).append(':').append(arg);
+        }
+        return packed.toString();
+    }
+
+    static String[] unpackArgs(String packed) {
+
+        List<String> args = new ArrayList<>();
+        int start = 0;
+
+        while (start < packed.length()) {
+
+            int colon = packed.indexOf(':', start);
+            int end = colon + 1 + Integer.parseInt(packed.substring(start, colon));
+
+            args.add(packed.substring(colon + 1, end));
+            start = end;
+        }
+
+        return args.toArray(new String[0]);
+    }
 
     static Path getLogPath() throws IOException {
 
-        Path logPath;
+        // Execution path cannot change so only resolve it once
+        if (logPath == null) {
 
-        // Get execution path
-        logPath = new File(".").getCanonicalFile().toPath();
+            Path path;
 
-        // Append log file location
-        logPath = (logPath.resolve("log")).resolve("log.mv.db");
+            // Get execution path
+            path = new File(".").getCanonicalFile().toPath();
+
+            // Append log file location
+            logPath = (path.resolve("log")).resolve("log.mv.db");
+        }
 
         return logPath;
     }
 
-    static void hookJvmShutdown() {
+    static void setLogPath(Path path) {
+        // Used by benchmarks and tests to keep their logs away from the app's,
+        // only takes effect before the default store is first opened
+
+        logPath = path;
+    }
+
+    static synchronized void hookJvmShutdown() {
         // Install a hook in the Jvm shutdown mechanism
         // to clean up resources when shutdown occurs
 
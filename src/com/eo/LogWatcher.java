@@ -1,142 +1,137 @@
 package com.eo;
 
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 
-import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
-
 /**
  * Created by eodeluga on 21/11/18.
  */
 class LogWatcher implements Runnable {
 
-    private static boolean alreadyTriggered = false;
-    private static File logFile;
-    private static Level severity;
-    private static WatchKey watchKey;
-    private static WatchService watchService;
-
+    // Signalled by the log store when entries the sender wants have been written
+    private static final ReentrantLock LOCK = new ReentrantLock();
+    private static final Condition NEW_ENTRIES = LOCK.newCondition();
+    // Entries at or above the send severity written since the last read
+    private static final AtomicLong PENDING = new AtomicLong();
 
-    static ScheduledExecutorService executor;
+    private static volatile boolean isRunning = false;
+    private static volatile Level severity;
+    private static Future<?> watchTask;
+    // Last entry handed to the sender, so entries are not read twice before they are sent
+    private static volatile long lastReadId = 0;
 
 
-    private static void checkWatchEvent() {
+    private static void awaitEntries() throws InterruptedException {
 
-        for (WatchEvent<?> event : watchKey.pollEvents()) {
+        LOCK.lock();
+        try {
+            // Sleep until there is something to read or the watcher is stopped
+            while (isRunning && PENDING.get() == 0) {
+                NEW_ENTRIES.await();
+            }
+        } finally {
+            LOCK.unlock();
+        }
+    }
 
-            // Ensure a successful file watch trigger only occurs once
-            if (!alreadyTriggered) {
+    private static void createWatchThread() {
 
-                // Get the type of event that was triggered
-                WatchEvent.Kind<?> eventKind = event.kind();
+        // Wait for new entries to be signalled on a worker, a virtual thread where available
+        watchTask = LogScheduler.execute(new LogWatcher());
+    }
 
-                // Skip overflow events
-                if (eventKind == OVERFLOW) {
-                    continue;
-                }
+    private static void destroyWatchThread() {
 
-                // Run through event types to see if watched event has been signalled
-                if (eventKind == StandardWatchEventKinds.ENTRY_MODIFY) {
+        isRunning = false;
+        wake();
 
-                    // Found a file change event so get context to check which file it was
-                    Path whichFileChanged = (Path) event.context();
+        watchTask.cancel(true);
+        watchTask = null;
+    }
 
-                    // If it was the log file then trigger actions
-                    if (whichFileChanged.toString().contains(logFile.toString())) {
+    private static void readUnsent() {
 
-                        // Get unsent log entries of selected severity
-                        String logToString = LogReader.readLog(severity, false);
+        long lastId = lastReadId;
 
-                        if (!logToString.isEmpty()) {
-                            // Email the entries
-                            LogSender.send(logToString);
-                        }
+        LogCursor cursor = new LogCursor(LogStore.getDefault(), LogSender.CURSOR_NAME,
+                severity, false, false, lastId, LogReader.fetchSize);
 
-                        // Set this to avoid double trigger of event
-                        alreadyTriggered = true;
-                    }
-                }
-            }
-        }
+        while (cursor.hasNext()) {
 
-        // Clean up if there is no more file to watch
-        if (!watchKeyValid()) {
-            unregisterWatcher();
-            destroyWatchThread();
-            return;
+            // Hand each unsent entry to the sender to be emailed
+            LogEntry entry = cursor.next();
+            LogSender.send(entry);
+            lastId = entry.id;
         }
 
-        alreadyTriggered = false;
+        lastReadId = lastId;
     }
 
-    private static void createWatchThread() {
-
-        // Create a 5 thread capable pool
-        executor = Executors.newScheduledThreadPool(5);
-
-        // Add new thread and execute every 3 secs
-        executor.scheduleAtFixedRate(LogWatcher::checkWatchEvent,
-                1, 3, TimeUnit.SECONDS);
-    }
-
-    private static void destroyWatchThread() {
-        executor.shutdownNow();
-    }
+    private static void wake() {
 
-    private static boolean watchKeyValid() {
-        return watchKey.reset();
+        LOCK.lock();
+        try {
+            NEW_ENTRIES.signal();
+        } finally {
+            LOCK.unlock();
+        }
     }
 
 
-    static void registerWatcher(Level severity) throws IOException {
+    static void entriesWritten(Level level, int count) {
+        // Called after entries are committed to the database
 
-        LogWatcher.severity = severity;
-        Path path;
+        Level sendSeverity = severity;
 
-        try {
-            // Specify the watch path as the log folder
-            path = LogUtility.getLogPath();
-            logFile = path.getFileName().toFile();
+        // Cheap return when no sender is running or it does not want these entries
+        if (!isRunning || level.intValue() < sendSeverity.intValue()) {
+            return;
+        }
 
-            // Get the path without the filename
-            path = LogUtility.getLogPath().getParent();
+        // Only the first entry since the last read needs to wake the watcher
+        if (PENDING.getAndAdd(count) == 0) {
+            wake();
+        }
+    }
 
-            // Start new watch service and register watch path for file modify events
-            watchService = FileSystems.getDefault().newWatchService();
-            watchKey = path.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY);
+    static void registerWatcher(Level severity) {
 
-        } catch (IOException e) {
+        LogWatcher.severity = severity;
 
-            LogWriter.writeLog(LogWriter.SEVERE, e.toString());
-            System.err.println("SEVERE: " + e.toString());
-            throw new IOException(e.toString());
-        }
+        // Read any unsent entries written before the watcher started
+        PENDING.set(1);
+        isRunning = true;
 
-        // Launch independent thread that watches for file changes
+        // Launch independent thread that waits for new entries
         createWatchThread();
     }
 
     static void unregisterWatcher() {
 
-        if (executor != null) {
-
-            try {
-                destroyWatchThread();
-                watchService.close();
-            } catch(IOException e){
-
-                LogWriter.writeLog(LogWriter.SEVERE, e.toString());
-                System.err.println("SEVERE: " + e.toString());
-            }
+        if (watchTask != null) {
+            destroyWatchThread();
         }
     }
 
 
     public void run() {
+
+        try {
+            while (isRunning) {
+
+                awaitEntries();
+
+                // Clear the count before reading so later entries wake the watcher again
+                if (PENDING.getAndSet(0) > 0) {
+                    LogMetrics.watcherWoken();
+                    readUnsent();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,7 @@
 package com.eo;
 
+import java.text.MessageFormat;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
 /**
@@ -15,15 +17,73 @@ public class LogWriter {
      * <p>
      * <b>Class variables</b>
      * <ul>
-     * <li><b>maxLogSizeKb</b> - Specify the maximum size the log database can grow before it is deleted
+     * <li><b>storeType</b> - How entries are kept, set before the first entry is written
+     * or read - <b>Default:</b> DATABASE
+     * <li><b>minLevel</b> - Entries below this severity are discarded before any work is done,
+     * unless a package level set by setLevel says otherwise - <b>Default:</b> ALL
+     * <li><b>maxLogSizeKb</b> - Specify the maximum size the log database can grow before it is archived - <b>Default:</b> 1024
+     * <li><b>maxLogSegments</b> - Number of archived log segments kept, oldest are deleted - <b>Default:</b> 5
+     * <li><b>sizeCheckInterval</b> - Number of writes between checks of the log database size - <b>Default:</b> 100
+     * <li><b>compressThreshold</b> - Messages of at least this many characters are stored compressed,
+     * 0 stores every message as text - <b>Default:</b> 1024
+     * <li><b>captureCaller</b> - Look up the calling class of each logged message - <b>Default:</b> True
+     * <li><b>indexBatchSize</b> - Number of new entries whose words are indexed together in the
+     * background for LogReader.search, 0 only indexes when searching - <b>Default:</b> 20000
+     * <li><b>startupBufferSize</b> - Number of entries held in memory while the log store is
+     * opened in the background at first use, later entries wait for it to open.
+     * 0 opens it on the first writing thread - <b>Default:</b> 1000
+     * <li><b>durability</b> - How far a synchronous write goes before writeLog returns,
+     * anything but NONE also waits for the log store to open - <b>Default:</b> NONE
+     * <li><b>groupCommit</b> - Entries written at the same time by different threads are inserted
+     * and made durable together by one of them, rather than one at a time - <b>Default:</b> False
+     * <li><b>poolSize</b> - Maximum number of open connections to the log database - <b>Default:</b> 4
+     * <li><b>useAsync</b> - Queue entries and write them in batches on a background thread - <b>Default:</b> False
+     * <li><b>batchSize</b> - Maximum number of queued entries written in one transaction - <b>Default:</b> 100
+     * <li><b>lingerMs</b> - How long (in milliseconds) a batch waits to fill before it is written - <b>Default:</b> 50
+     * <li><b>queueCapacity</b> - Maximum number of entries waiting to be written - <b>Default:</b> 10000
+     * <li><b>queuePolicy</b> - What to do when the queue is full - <b>Default:</b> BLOCK
+     * <li><b>dropBelow</b> - Entries below this severity are dropped by DROP_BELOW_SEVERITY - <b>Default:</b> WARNING
+     * <li><b>coalesceWindowMs</b> - Identical entries logged within this many milliseconds are stored once
+     * with a repeat count, 0 stores every entry - <b>Default:</b> 0
+     * <li><b>rateLimit</b> - Entries kept per second for each rateLimitBy key, 0 keeps every entry - <b>Default:</b> 0
+     * <li><b>rateBurst</b> - Entries kept at once before rateLimit applies - <b>Default:</b> 100
+     * <li><b>rateLimitBy</b> - What entries are counted against rateLimit by - <b>Default:</b> CLASS
+     * <li><b>sampleRate</b> - Fraction of INFO and lower entries kept - <b>Default:</b> 1.0
+     * <li><b>summaryIntervalMs</b> - How often (in milliseconds) the number of rate limited
+     * and sampled out entries is logged - <b>Default:</b> 60000
      * </p></ul>
      */
 
+    public static StoreType storeType = StoreType.DATABASE;
+    public static Level minLevel = Level.ALL;
     public static int maxLogSizeKb = 1024;
+    public static int maxLogSegments = 5;
+    public static int sizeCheckInterval = 100;
+    public static int poolSize = 4;
+    public static int compressThreshold = 1024;
+    public static boolean captureCaller = true;
+    public static int indexBatchSize = 20000;
+    public static int startupBufferSize = 1000;
+    public static Durability durability = Durability.NONE;
+    public static boolean groupCommit = false;
 
-    // Used to get respective element of dateTime array
-    private static final int DATE = 0;
-    private static final int TIME = 1;
+    // Async write parameters with defaults set
+    public static boolean useAsync = false;
+    public static int batchSize = 100;
+    public static int lingerMs = 50;
+    public static int queueCapacity = 10000;
+    public static QueuePolicy queuePolicy = QueuePolicy.BLOCK;
+    public static Level dropBelow = Level.WARNING;
+
+    // Duplicate entry coalescing window, off by default
+    public static int coalesceWindowMs = 0;
+
+    // Rate limiting and sampling, off by default
+    public static double rateLimit = 0;
+    public static int rateBurst = 100;
+    public static RateLimitKey rateLimitBy = RateLimitKey.CLASS;
+    public static double sampleRate = 1.0;
+    public static int summaryIntervalMs = 60000;
 
 
     // Logging severity levels
@@ -32,21 +92,233 @@ public class LogWriter {
     public static Level WARNING = Level.WARNING;
 
 
+    /**
+     * Policies applied by async mode when the queue is full
+     *
+     * <p><ul>
+     * <li><b>BLOCK</b> - Wait for space in the queue
+     * <li><b>DROP</b> - Discard the new entry
+     * <li><b>DROP_BELOW_SEVERITY</b> - Discard the new entry if it is below dropBelow, otherwise wait
+     * </ul></p>
+     */
+    public enum QueuePolicy { BLOCK, DROP, DROP_BELOW_SEVERITY }
+
+    /**
+     * How log entries are kept
+     *
+     * <p><ul>
+     * <li><b>DATABASE</b> - An encrypted database that searches and queries run against
+     * <li><b>JOURNAL</b> - Encrypted files entries are only ever appended to, cheaper to
+     * write to but read by scanning
+     * </ul></p>
+     */
+    public enum StoreType { DATABASE, JOURNAL }
+
+    /**
+     * How far a synchronous write goes before writeLog returns
+     *
+     * <p><ul>
+     * <li><b>NONE</b> - Handed to the log store, which writes it to disk in its own time
+     * <li><b>COMMIT</b> - Written to the log file, so it is kept if the app crashes
+     * <li><b>FSYNC</b> - Forced to disk, so it is kept if the machine loses power
+     * </ul></p>
+     */
+    public enum Durability { NONE, COMMIT, FSYNC }
+
+    /**
+     * What entries are counted against rateLimit by
+     *
+     * <p><ul>
+     * <li><b>CLASS</b> - Each calling class has its own limit
+     * <li><b>SEVERITY</b> - Each severity level has its own limit
+     * <li><b>CLASS_AND_SEVERITY</b> - Each severity level of each calling class has its own limit
+     * </ul></p>
+     */
+    public enum RateLimitKey { CLASS, SEVERITY, CLASS_AND_SEVERITY }
+
+
+    private static void write(Level level, String cClassName, String msg) {
+
+        // Time is stored as epoch milliseconds and only formatted when read
+        write(new LogEntry(
+                System.currentTimeMillis(), level,
+                cClassName, msg));
+    }
+
+
+    static boolean isKept(String cClassName, Level level) {
+
+        // Package levels first as they are cheaper than the rate limiter
+        return LogLevels.isEnabled(cClassName, level)
+                && LogLimiter.isAllowed(cClassName, level);
+    }
+
+    static void write(LogEntry entry) {
+
+        if (coalesceWindowMs > 0) {
+            // Hold entry back in case it is repeated within the window
+            LogCoalescer.add(entry);
+
+        } else {
+            store(entry);
+        }
+    }
+
+    static void store(LogEntry entry) {
+
+        if (useAsync) {
+            // Hand entry to the background flusher
+            LogQueue.put(entry);
+
+        } else {
+            // Write log entry to database
+            LogStore.getDefault().writeLog(entry);
+        }
+    }
+
+
+    /**
+     * Open the log store in the background now rather than when the first entry is
+     * written, e.g. at the start of main. Entries written before it is open are
+     * held in memory and written once it is
+     */
+    public static void preload() {
+
+        LogStore.getDefault().preload();
+    }
+
+    /**
+     * @param level The severity level to check
+     * @return True if entries of this severity are kept
+     */
+    public static boolean isLoggable(Level level) {
+
+        // A package may be set lower than minLevel so only the lowest of them rules an entry out
+        return level.intValue() >= Math.min(minLevel.intValue(), LogLevels.lowest());
+    }
+
+    /**
+     * Set the minimum severity kept for a package or class and everything beneath it,
+     * overriding minLevel. Takes effect immediately
+     *
+     * @param name Package or fully qualified class name, e.g. com.shop.http
+     * @param level The minimum severity level, or null to remove the setting
+     */
+    public static void setLevel(String name, Level level) {
+
+        LogLevels.set(name, level);
+    }
+
+    /**
+     * Set minimum severity levels for several packages or classes at once
+     *
+     * @param levels Comma separated settings, e.g. com.shop.http=WARNING,com.shop.billing=INFO
+     * @throws IllegalArgumentException Thrown if a setting or level name is not valid
+     */
+    public static void setLevels(String levels) {
+
+        for (String setting : levels.split(",")) {
+
+            if (setting.trim().isEmpty()) {
+                continue;
+            }
+
+            String[] nameLevel = setting.split("=");
+            if (nameLevel.length != 2) {
+                throw new IllegalArgumentException("Invalid level setting: " + setting);
+            }
+
+            setLevel(nameLevel[0].trim(), Level.parse(nameLevel[1].trim()));
+        }
+    }
+
+    /**
+     * Remove all package and class levels so only minLevel applies
+     */
+    public static void clearLevels() {
+
+        LogLevels.clear();
+    }
+
     /**
      * @param level The severity level of the logged message
      * @param msg The message text to log
      */
     public static void writeLog (Level level, String msg) {
 
+        // Discard before looking up the caller or the time
+        if (!isLoggable(level)) {
+            return;
+        }
+
         // Gets the calling class name of the method that calls this method
-        String cClassName = new Exception().getStackTrace()[1].getClassName();
+        String cClassName = captureCaller
+                ? LogUtility.getCallerClassName()
+                : LogUtility.UNKNOWN_CLASS;
+
+        if (isKept(cClassName, level)) {
+            write(level, cClassName, msg);
+        }
+    }
+
+    /**
+     * Formats the message only if the entry will be kept
+     *
+     * @param level The severity level of the logged message
+     * @param pattern The message text to log with {0}, {1}... placeholders as used by MessageFormat
+     * @param args The values for the placeholders
+     */
+    public static void writeLog (Level level, String pattern, Object... args) {
+
+        if (!isLoggable(level)) {
+            return;
+        }
+
+        String cClassName = captureCaller
+                ? LogUtility.getCallerClassName()
+                : LogUtility.UNKNOWN_CLASS;
+
+        if (isKept(cClassName, level)) {
+            write(level, cClassName, MessageFormat.format(pattern, args));
+        }
+    }
+
+    /**
+     * Builds the message only if the entry will be kept
+     *
+     * @param level The severity level of the logged message
+     * @param msg Supplies the message text to log
+     */
+    public static void writeLog (Level level, Supplier<String> msg) {
+
+        if (!isLoggable(level)) {
+            return;
+        }
+
+        String cClassName = captureCaller
+                ? LogUtility.getCallerClassName()
+                : LogUtility.UNKNOWN_CLASS;
+
+        if (isKept(cClassName, level)) {
+            write(level, cClassName, msg.get());
+        }
+    }
+
+    /**
+     * Avoids looking up the calling class by having the caller supply it
+     *
+     * @param caller The class the message is logged from
+     * @param level The severity level of the logged message
+     * @param msg The message text to log
+     */
+    public static void writeLog (Class<?> caller, Level level, String msg) {
 
-        // Get the date and time in a string array
-        String[] dateTime = LogUtility.getDateTime();
+        if (!isLoggable(level)) {
+            return;
+        }
 
-        // Write log entry to database
-        LogDatabase.insertLog(
-                dateTime[TIME], dateTime[DATE], level,
-                cClassName, msg);
+        if (isKept(caller.getName(), level)) {
+            write(level, caller.getName(), msg);
+        }
     }
 }
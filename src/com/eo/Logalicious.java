@@ -0,0 +1,198 @@
+package com.eo;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.logging.Level;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class Logalicious implements AutoCloseable {
+
+    /**
+     * A log store of its own, independent of the one used by LogWriter,
+     * LogReader and LogSender. Built with Logalicious.builder()
+     *
+     * <p>
+     * <b>Builder options</b>
+     * <ul>
+     * <li><b>path</b> - Where the live log database is kept, .mv.db is added if missing.
+     * Journals are kept beside it as .journal when LogWriter.storeType is JOURNAL
+     * - <b>Default:</b> ./log/log.mv.db
+     * <li><b>shards</b> - Number of log databases writes are spread across, each thread
+     * writes to one of them and reads merge them in time order - <b>Default:</b> 1
+     * </p></ul>
+     *
+     * <p>
+     * Entries are kept or discarded by the same minLevel, package levels and rate
+     * limits as LogWriter, and written straight to the store without coalescing or
+     * the async queue
+     * </p>
+     */
+
+    private final LogShards shards;
+
+
+    private Logalicious(LogShards shards) {
+        this.shards = shards;
+    }
+
+
+    /**
+     * Options for a new log store
+     */
+    public static final class Builder {
+
+        private Path path;
+        private int shards = 1;
+
+        private Builder() {}
+
+        /**
+         * @param path Where the live log database is kept
+         * @return This builder
+         */
+        public Builder path(String path) { return path(Paths.get(path)); }
+
+        /**
+         * @param path Where the live log database is kept
+         * @return This builder
+         */
+        public Builder path(Path path) {
+
+            String name = path.toString();
+            this.path = (name.endsWith(".mv.db") ? path : Paths.get(name + ".mv.db"))
+                    .toAbsolutePath();
+            return this;
+        }
+
+        /**
+         * @param shards Number of log databases writes are spread across
+         * @return This builder
+         */
+        public Builder shards(int shards) {
+
+            if (shards < 1) {
+                throw new IllegalArgumentException("At least one shard is needed");
+            }
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * @return A log store using these options
+         * @throws IOException Thrown if the default path cannot be resolved
+         */
+        public Logalicious build() throws IOException {
+
+            Path defaultPath = LogUtility.getLogPath();
+            Path logPath = path != null ? path : defaultPath;
+
+            // Share the database LogWriter uses rather than opening it twice
+            if (shards == 1 && logPath.equals(defaultPath)) {
+                return new Logalicious(new LogShards(LogStore.getDefault()));
+            }
+
+            return new Logalicious(new LogShards(logPath, shards));
+        }
+    }
+
+
+    /**
+     * @return Options for a new log store
+     */
+    public static Builder builder() { return new Builder(); }
+
+
+    private void write(Level level, String cClassName, String msg) {
+
+        if (LogWriter.isKept(cClassName, level)) {
+            shards.insertLog(new LogEntry(System.currentTimeMillis(), level, cClassName, msg));
+        }
+    }
+
+
+    /**
+     * Closes the log databases of this store
+     */
+    @Override
+    public void close() { shards.close(); }
+
+    /**
+     * Find log entries by time, severity and calling class across every shard
+     *
+     * @return A query of this store
+     */
+    public LogQuery query() { return new LogQuery(shards.getStores()); }
+
+    /**
+     * Read log entries from every shard in time order
+     *
+     * @param severity The minimum severity level of entries to read
+     * @return The formatted entries
+     */
+    public String readLog(Level severity) {
+
+        StringBuilder log = new StringBuilder();
+        Iterator<LogEntry> cursor = shards.cursor(severity, false, false);
+
+        try {
+            while (cursor.hasNext()) {
+                LogReader.appendEntry(log, cursor.next());
+            }
+        } catch (IOException e) {
+            // StringBuilder never throws
+            System.err.println("SEVERE: Cannot read log database "
+                    .concat(e.toString()));
+        }
+
+        return log.toString();
+    }
+
+    /**
+     * Stream log entries from every shard in time order, reading
+     * LogReader.fetchSize entries from each shard at a time
+     *
+     * @param severity The minimum severity level of entries to read
+     * @param archived Toggle to include archived segments, read before the live log
+     * @return The matching entries
+     */
+    public Stream<LogEntry> streamLog(Level severity, boolean archived) {
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                shards.cursor(severity, false, archived),
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * @param level The severity level of the logged message
+     * @param msg The message text to log
+     */
+    public void writeLog(Level level, String msg) {
+
+        if (!LogWriter.isLoggable(level)) {
+            return;
+        }
+
+        write(level, LogWriter.captureCaller
+                ? LogUtility.getCallerClassName()
+                : LogUtility.UNKNOWN_CLASS, msg);
+    }
+
+    /**
+     * Avoids looking up the calling class by having the caller supply it
+     *
+     * @param caller The class the message is logged from
+     * @param level The severity level of the logged message
+     * @param msg The message text to log
+     */
+    public void writeLog(Class<?> caller, Level level, String msg) {
+
+        if (LogWriter.isLoggable(level)) {
+            write(level, caller.getName(), msg);
+        }
+    }
+}
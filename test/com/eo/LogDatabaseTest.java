@@ -0,0 +1,306 @@
+package com.eo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Rolling a log database into archives and opening databases written by
+ * older versions of the library
+ */
+class LogDatabaseTest {
+
+    @TempDir
+    Path directory;
+
+    private Path path;
+    private LogDatabase database;
+
+
+    @BeforeEach
+    void openDatabase() {
+
+        path = directory.resolve("log.mv.db");
+        database = new LogDatabase(path);
+    }
+
+    @AfterEach
+    void closeDatabase() {
+
+        database.close();
+        LogWriter.maxLogSizeKb = 1024;
+        LogWriter.sizeCheckInterval = 100;
+        LogWriter.indexBatchSize = 20000;
+    }
+
+
+    static List<LogEntry> entries(String prefix, int from, int count) {
+
+        List<LogEntry> entries = new ArrayList<>(count);
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            padding.append(" padding");
+        }
+
+        for (int i = from; i < from + count; i++) {
+            entries.add(new LogEntry(System.currentTimeMillis(), Level.SEVERE,
+                    LogDatabaseTest.class.getName(), prefix + i + padding));
+        }
+
+        return entries;
+    }
+
+    static List<LogEntry> read(LogStore store, int segment, boolean isSent) {
+
+        return store.getLogPage(segment, LogSender.CURSOR_NAME, Level.ALL,
+                isSent, 0, 100000);
+    }
+
+
+    private String legacyUrl() {
+
+        return "jdbc:h2:" + directory.resolve("log") + ";CIPHER=AES";
+    }
+
+    private String legacyPassword() throws Exception {
+
+        return "filepwd " + new String(LogUtility.generatePassword(path.toString().toCharArray()));
+    }
+
+    private void createLegacyDatabase(String extraColumns) throws Exception {
+
+        // Schema and values as written by the first version of the library
+        try (Connection conn = DriverManager.getConnection(legacyUrl(), "logalicious", legacyPassword());
+             Statement statement = conn.createStatement()) {
+
+            statement.execute("CREATE TABLE Logs (Time varchar(255), Date varchar(255), "
+                    + "Severity int, SevName varchar(255), Class varchar(255), "
+                    + "Message clob, Sent bit" + extraColumns + ")");
+
+            try (PreparedStatement insert = conn.prepareStatement(
+                    "INSERT INTO Logs (Time, Date, Severity, SevName, "
+                    + "Class, Message, Sent) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+
+                for (int i = 0; i < 10; i++) {
+                    insert.setString(1, "10:15:" + (10 + i));
+                    insert.setString(2, "07 Feb 2018");
+                    insert.setInt(3, Level.SEVERE.intValue());
+                    insert.setString(4, Level.SEVERE.toString());
+                    insert.setString(5, "com.example.Legacy");
+                    insert.setString(6, "legacy entry " + i);
+                    // The first four were emailed by the old sender
+                    insert.setBoolean(7, i < 4);
+                    insert.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private long countLegacyRows() throws Exception {
+
+        try (Connection conn = DriverManager.getConnection(legacyUrl(), "logalicious", legacyPassword());
+             Statement statement = conn.createStatement();
+             ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM Logs")) {
+
+            result.next();
+            return result.getLong(1);
+        }
+    }
+
+
+    private void writeConcurrently(int writers, int perWriter) throws InterruptedException {
+
+        // Single entries and batches of different sizes commit side by side
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            String prefix = "writer " + w + " entry ";
+            Thread writer = new Thread(() -> {
+                int i = 0;
+                while (i < perWriter) {
+                    int count = Math.min(perWriter - i, i % 3 == 0 ? 1 : 1 + i % 50);
+                    if (count == 1) {
+                        database.insertLog(entries(prefix, i, 1).get(0));
+                    } else {
+                        database.insertLogs(entries(prefix, i, count));
+                    }
+                    i += count;
+                }
+            });
+            threads.add(writer);
+            writer.start();
+        }
+
+        for (Thread writer : threads) {
+            writer.join();
+        }
+    }
+
+
+    @Test
+    void readerFollowingIdsMissesNothingFromConcurrentWriters() throws Exception {
+
+        // Kept in one segment so the reader only follows the live log
+        LogWriter.maxLogSizeKb = 1024 * 1024;
+
+        int writers = 8;
+        int perWriter = 2000;
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        AtomicBoolean isWriting = new AtomicBoolean(true);
+
+        // Reads forward from the last id it saw as the sender's watcher does
+        Thread reader = new Thread(() -> {
+            long lastId = 0;
+            boolean isLast = false;
+
+            while (!isLast) {
+                isLast = !isWriting.get();
+                List<LogEntry> page = database.getLogPage(0, LogSender.CURSOR_NAME,
+                        Level.ALL, false, lastId, 500);
+                for (LogEntry entry : page) {
+                    seen.add(entry.message);
+                    lastId = entry.id;
+                }
+                if (page.size() == 500) {
+                    isLast = false;
+                }
+            }
+        });
+        reader.start();
+
+        writeConcurrently(writers, perWriter);
+        isWriting.set(false);
+        reader.join();
+
+        assertEquals(writers * perWriter, seen.size());
+    }
+
+    @Test
+    void indexMissesNothingFromConcurrentWriters() throws Exception {
+
+        LogWriter.maxLogSizeKb = 1024 * 1024;
+        // Index passes run in the background while the writers are busy
+        LogWriter.indexBatchSize = 500;
+
+        writeConcurrently(8, 2000);
+
+        List<LogEntry> found = new LogQuery(database).matching("padding").limit(100000).list();
+        assertEquals(16000, found.size());
+    }
+
+    @Test
+    void rollCarriesIdsAndCursors() {
+
+        LogWriter.maxLogSizeKb = 64;
+        LogWriter.sizeCheckInterval = 1;
+
+        database.insertLogs(entries("entry ", 0, 200));
+        database.markAsSent(LogSender.CURSOR_NAME, 150);
+
+        // Written out each time so the file grows until it rolls
+        int written = 200;
+        Path archive = LogUtility.getArchivePath(path, 1);
+
+        while (!Files.exists(archive) && written < 20000) {
+            database.insertLogs(entries("entry ", written, 200));
+            database.flush(false);
+            written += 200;
+        }
+        assertTrue(Files.exists(archive));
+
+        List<LogEntry> archived = new ArrayList<>(read(database, 1, true));
+        archived.addAll(read(database, 1, false));
+        List<LogEntry> live = read(database, 0, false);
+
+        // Every entry is kept once, ids carrying on from the archive
+        assertEquals(written, archived.size() + live.size());
+        long lastArchived = archived.stream().mapToLong(entry -> entry.id).max().getAsLong();
+        assertTrue(live.stream().allMatch(entry -> entry.id > lastArchived));
+
+        // Entries up to the sender's cursor count as sent whichever segment they are in
+        assertEquals(150, read(database, 1, true).size());
+        assertEquals(0, read(database, 0, true).size());
+        assertEquals(written - 150, read(database, 1, false).size() + live.size());
+    }
+
+    @Test
+    void archivesAreRenumberedOnEachRoll() {
+
+        LogWriter.maxLogSizeKb = 64;
+        LogWriter.sizeCheckInterval = 1;
+
+        int written = 0;
+        Path second = LogUtility.getArchivePath(path, 2);
+        long firstArchiveEnd = 0;
+
+        while (!Files.exists(second) && written < 40000) {
+            database.insertLogs(entries("entry ", written, 200));
+            database.flush(false);
+            written += 200;
+
+            // Reading keeps the newest archive open between rolls
+            List<LogEntry> archived = read(database, 1, false);
+            if (firstArchiveEnd == 0 && !archived.isEmpty()) {
+                firstArchiveEnd = archived.get(archived.size() - 1).id;
+            }
+        }
+        assertTrue(Files.exists(second));
+
+        // The open archive was let go so segment 1 is now the newer one
+        assertEquals(firstArchiveEnd, read(database, 2, false).stream()
+                .mapToLong(entry -> entry.id).max().getAsLong());
+        assertTrue(read(database, 1, false).get(0).id > firstArchiveEnd);
+    }
+
+    @Test
+    void migratesLegacyDatabase() throws Exception {
+
+        createLegacyDatabase("");
+
+        List<LogEntry> sent = read(database, 0, true);
+        List<LogEntry> unsent = read(database, 0, false);
+
+        assertEquals(4, sent.size());
+        assertEquals(6, unsent.size());
+        assertEquals("legacy entry 0", sent.get(0).message);
+        assertEquals("legacy entry 9", unsent.get(5).message);
+        assertTrue(unsent.get(5).timestamp > unsent.get(0).timestamp);
+
+        // New entries carry on after the migrated ones
+        database.insertLog(new LogEntry(System.currentTimeMillis(), Level.SEVERE,
+                LogDatabaseTest.class.getName(), "new entry"));
+        assertEquals(7, read(database, 0, false).size());
+    }
+
+    @Test
+    void failedMigrationKeepsDatabase() throws Exception {
+
+        // A primary key of its own stops the id column becoming the key
+        createLegacyDatabase(", Seq int AUTO_INCREMENT PRIMARY KEY");
+
+        // Nothing can be read or written but the database is not replaced
+        assertTrue(read(database, 0, false).isEmpty());
+        database.insertLog(new LogEntry(System.currentTimeMillis(), Level.SEVERE,
+                LogDatabaseTest.class.getName(), "new entry"));
+        database.close();
+
+        assertTrue(Files.exists(path));
+        assertEquals(10, countLegacyRows());
+    }
+}
@@ -0,0 +1,112 @@
+package com.eo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Reopening log journals left damaged by a crash or a bad disk
+ */
+class LogJournalTest {
+
+    // Offset of the first block, after the magic number and carried id
+    private static final int FIRST_BLOCK = 12;
+
+    @TempDir
+    Path directory;
+
+    private Path path;
+    private LogJournal journal;
+
+
+    @BeforeEach
+    void openJournal() {
+
+        path = directory.resolve("log.journal");
+        journal = new LogJournal(path);
+    }
+
+    @AfterEach
+    void closeJournal() {
+
+        journal.close();
+    }
+
+
+    private void reopen() {
+
+        journal.close();
+        journal = new LogJournal(path);
+    }
+
+    private List<String> readMessages() {
+
+        return LogDatabaseTest.read(journal, 0, false).stream()
+                .map(entry -> entry.message)
+                .collect(Collectors.toList());
+    }
+
+    private void writeBlocks() {
+
+        // One block per insert
+        for (int block = 0; block < 3; block++) {
+            journal.insertLogs(List.of(
+                    new LogEntry(1000 + block, Level.INFO, "c", "block " + block + " first"),
+                    new LogEntry(1000 + block, Level.INFO, "c", "block " + block + " second")));
+        }
+    }
+
+
+    @Test
+    void recoversFromTornTail() throws Exception {
+
+        writeBlocks();
+        journal.closeDatabase();
+
+        // A block whose write was cut short by a crash
+        Files.write(path, new byte[] { 2, 0, 0, 1, 7, 7, 7, 7, 7, 7 },
+                StandardOpenOption.APPEND);
+
+        reopen();
+        assertEquals(6, readMessages().size());
+
+        // Writing carries on where the last whole block ended
+        journal.insertLog(new LogEntry(2000, Level.INFO, "c", "after recovery"));
+        reopen();
+
+        List<String> messages = readMessages();
+        assertEquals(7, messages.size());
+        assertEquals("after recovery", messages.get(6));
+    }
+
+    @Test
+    void skipsDamagedBlockHeader() throws Exception {
+
+        writeBlocks();
+        journal.closeDatabase();
+
+        // Flip a bit in the header of the first block
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(FIRST_BLOCK + 3);
+            int value = file.read();
+            file.seek(FIRST_BLOCK + 3);
+            file.write(value ^ 0x10);
+        }
+
+        reopen();
+
+        // Only the damaged block is lost
+        assertEquals(List.of("block 1 first", "block 1 second",
+                "block 2 first", "block 2 second"), readMessages());
+    }
+}
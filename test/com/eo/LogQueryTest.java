@@ -0,0 +1,101 @@
+package com.eo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Paging through queries of a sharded log, whose shards number their
+ * entries independently
+ */
+class LogQueryTest {
+
+    @TempDir
+    Path directory;
+
+    private LogShards shards;
+
+
+    @BeforeEach
+    void openShards() {
+
+        shards = new LogShards(directory.resolve("log.mv.db"), 3);
+
+        // Every shard has the same ids at the same few times
+        for (int i = 0; i < 3; i++) {
+            List<LogEntry> entries = new ArrayList<>();
+            for (int j = 0; j < 30; j++) {
+                entries.add(new LogEntry(1000 + j / 10, Level.INFO,
+                        LogQueryTest.class.getName(), "shard " + i + " entry " + j));
+            }
+            shards.getStores()[i].insertLogs(entries);
+        }
+    }
+
+    @AfterEach
+    void closeShards() {
+
+        shards.close();
+    }
+
+
+    private List<String> readPages(boolean isNewestFirst, int pageSize) {
+
+        List<String> messages = new ArrayList<>();
+        LogEntry last = null;
+
+        while (true) {
+            LogQuery query = new LogQuery(shards.getStores()).limit(pageSize);
+            if (isNewestFirst) {
+                query.newestFirst();
+            }
+            if (last != null) {
+                query.after(last);
+            }
+
+            List<LogEntry> page = query.list();
+            if (page.isEmpty()) {
+                return messages;
+            }
+
+            for (LogEntry entry : page) {
+                messages.add(entry.message);
+            }
+            last = page.get(page.size() - 1);
+        }
+    }
+
+    private static void assertEachOnce(List<String> messages) {
+
+        Set<String> unique = new HashSet<>(messages);
+        assertEquals(messages.size(), unique.size());
+        assertEquals(90, unique.size());
+    }
+
+
+    @Test
+    void pagesOldestFirstAcrossShards() {
+
+        // Pages end between entries of different shards with the same time and id
+        for (int pageSize : new int[] { 1, 4, 7 }) {
+            assertEachOnce(readPages(false, pageSize));
+        }
+    }
+
+    @Test
+    void pagesNewestFirstAcrossShards() {
+
+        for (int pageSize : new int[] { 1, 4, 7 }) {
+            assertEachOnce(readPages(true, pageSize));
+        }
+    }
+}
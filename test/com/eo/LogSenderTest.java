@@ -0,0 +1,147 @@
+package com.eo;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Sends log entries through the email sender to a local SMTP stand-in and
+ * checks each is emailed once and its cursor only moves past what was sent
+ */
+class LogSenderTest {
+
+    @TempDir
+    static Path directory;
+
+    private SmtpStub smtp;
+
+
+    @BeforeAll
+    static void useTemporaryLog() {
+
+        LogUtility.setLogPath(directory.resolve("log").resolve("log.mv.db"));
+    }
+
+    @BeforeEach
+    void startSender() throws IOException {
+
+        smtp = new SmtpStub();
+
+        LogSender.host = "localhost";
+        LogSender.port = smtp.getPort();
+        LogSender.useTLS = false;
+        LogSender.from = "logalicious@localhost";
+        LogSender.to = "test@localhost";
+        LogSender.subject = "Test";
+        LogSender.severity = Level.WARNING;
+
+        // Sends are run by the tests rather than on the schedule
+        LogSender.interval = 3600;
+        LogSender.startService();
+    }
+
+    @AfterEach
+    void stopSender() throws IOException {
+
+        LogSender.stopService();
+        smtp.close();
+    }
+
+
+    static void await(BooleanSupplier condition) throws InterruptedException {
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(20);
+
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting");
+            Thread.sleep(10);
+        }
+    }
+
+    private static long countUnsent() {
+
+        return LogReader.streamLog(Level.WARNING, false).count();
+    }
+
+    private Map<String, Integer> countEmailed(String prefix) {
+
+        Map<String, Integer> counts = new HashMap<>();
+
+        for (String message : smtp.getMessages()) {
+            for (String line : message.split("\n")) {
+                if (line.startsWith(prefix)) {
+                    counts.merge(line, 1, Integer::sum);
+                }
+            }
+        }
+
+        return counts;
+    }
+
+
+    @Test
+    void sendsEachEntryOnceAndMovesCursor() throws InterruptedException {
+
+        for (int i = 0; i < 50; i++) {
+            LogWriter.writeLog(LogSenderTest.class, Level.SEVERE, "sent entry " + i);
+        }
+        // Below the send severity so never emailed
+        LogWriter.writeLog(LogSenderTest.class, Level.INFO, "sent entry info");
+
+        await(() -> LogSender.getBufferDepth() == 50);
+        LogSender.sendMail();
+
+        assertEquals(1, smtp.getMessages().size());
+        Map<String, Integer> emailed = countEmailed("sent entry ");
+        assertEquals(50, emailed.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(1, emailed.get("sent entry " + i));
+        }
+
+        assertEquals(0, countUnsent());
+    }
+
+    @Test
+    void failedSendIsRetriedWithoutDuplicates() throws InterruptedException {
+
+        for (int i = 0; i < 20; i++) {
+            LogWriter.writeLog(LogSenderTest.class, Level.SEVERE, "retried entry " + i);
+        }
+        await(() -> LogSender.getBufferDepth() == 20);
+
+        smtp.rejectNext(1);
+        LogSender.sendMail();
+
+        // Nothing was sent so nothing is marked as sent
+        assertEquals(0, smtp.getMessages().size());
+        assertTrue(countUnsent() >= 20);
+
+        // More entries arrive before the next send
+        for (int i = 20; i < 30; i++) {
+            LogWriter.writeLog(LogSenderTest.class, Level.SEVERE, "retried entry " + i);
+        }
+        // The 30 entries and the error logged by the failed send
+        await(() -> LogSender.getBufferDepth() == 31);
+        LogSender.sendMail();
+
+        Map<String, Integer> emailed = countEmailed("retried entry ");
+        assertEquals(30, emailed.size());
+        for (int i = 0; i < 30; i++) {
+            assertEquals(1, emailed.get("retried entry " + i));
+        }
+
+        assertEquals(0, countUnsent());
+    }
+}
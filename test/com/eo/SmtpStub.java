@@ -0,0 +1,111 @@
+package com.eo;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local SMTP stand-in that keeps the body of every message it accepts and
+ * can be told to reject the next few, so the sender can be tested without
+ * a network or a real mail server
+ */
+class SmtpStub implements Runnable, AutoCloseable {
+
+    private final ServerSocket server;
+    private final List<String> messages = new CopyOnWriteArrayList<>();
+    private final AtomicInteger rejections = new AtomicInteger();
+
+
+    SmtpStub() throws IOException {
+
+        server = new ServerSocket(0);
+
+        Thread thread = new Thread(this, "smtp-stub");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void reply(OutputStream out, String line) throws IOException {
+
+        out.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private void handle(Socket socket) {
+
+        try (Socket client = socket) {
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    client.getInputStream(), StandardCharsets.US_ASCII));
+            OutputStream out = client.getOutputStream();
+
+            reply(out, "220 stub");
+
+            String line;
+            while ((line = in.readLine()) != null) {
+
+                String command = line.toUpperCase();
+
+                if (command.startsWith("DATA")) {
+
+                    reply(out, "354 send data");
+
+                    StringBuilder body = new StringBuilder();
+                    while ((line = in.readLine()) != null && !line.equals(".")) {
+                        body.append(line).append('\n');
+                    }
+
+                    // Rejected after the data as a full mailbox or spam filter would
+                    if (rejections.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                        reply(out, "554 rejected");
+                    } else {
+                        messages.add(body.toString());
+                        reply(out, "250 ok");
+                    }
+
+                } else if (command.startsWith("QUIT")) {
+                    reply(out, "221 bye");
+                    return;
+
+                } else {
+                    reply(out, "250 ok");
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+
+
+    List<String> getMessages() { return messages; }
+
+    int getPort() { return server.getLocalPort(); }
+
+    void rejectNext(int count) { rejections.set(count); }
+
+    @Override
+    public void close() throws IOException { server.close(); }
+
+    @Override
+    public void run() {
+
+        try {
+            while (true) {
+                Socket client = server.accept();
+
+                Thread thread = new Thread(() -> handle(client), "smtp-stub-client");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            // Server closed
+        }
+    }
+}